@@ -40,20 +40,46 @@ public abstract class Column
     abstract Table.ColumnDataType GetType();
     
     abstract void Compile();
+    
+    // Add the rows of a column of the same name to the end
+    abstract void AppendRows( Column other );
+    
+    // Move data into storage mode
+    abstract void SetStorage( Table.StorageMode mode );
+    
+    // Keep normalized data in precision
+    abstract void SetPrecision( Table.Precision precision );
+    
+    // Keep a copy of normalized data instead of computing it on access
+    abstract void SetMaterialized( boolean materialized );
+    
+    // Keep a quantile sketch for percentile queries
+    abstract void SetQuantileSketch( boolean enabled );
+    
+    // Normalize between two quantiles instead of min and max
+    abstract void SetNormalizationRange( double q_low, double q_high );
         
-    abstract void SetValue_Numeric(int row, int position, Double value );
+    abstract void SetValue_Numeric(int row, int position, double value );
     abstract Double GetValue_Normalized(int row, int position );
     abstract Double GetValue_Numeric( int row, int position );
+    abstract double GetDouble_Normalized(int row, int position );
+    abstract double GetDouble_Numeric( int row, int position );
     abstract String GetValue_String( int row );
     abstract Double GetValue_Min();
     abstract Double GetValue_Max();
     abstract Double GetValue_Avg(int position);
     abstract Double GetValue_Var(int position);
+    abstract Double GetValue_Median(int position);
+    abstract Double GetValue_Quantile(int position, double q);
     
     abstract int GetRowIndex_NormalizedSorted(int order, int position);
     abstract int GetRowIndex_Median(int position);
     
+    // Rows with a missing value, shared and read-only
+    abstract BitSet GetMissing();
+    
     abstract Double[] GetValues_Normalized(int position );
+    abstract double[] GetDoubles_Normalized(int position );
     
     abstract public double DenormalizeValue( double value );
     abstract public double NormalizeValue( double value );
@@ -0,0 +1,601 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Jacob Cornelius Mosebo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package nn1;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Growable, typed column store that is filled one cell at a time while a file is streamed.
+ * The first cells are held back as a sample and the column type is decided from them by character class checks.
+ * After that each cell is parsed once, a cell that contradicts the type promotes the column to Datetime or Levels.
+ * Cells seen before a promotion to Levels become levels by their text: the text of a cell is kept when its parsed
+ * value does not render back to it (such as "007", "1.50" or "NA"), other cells are rendered from the value.
+ */
+public class ColumnBuilder
+{
+    private static final int INITIAL_CAPACITY = 1024;
+    
+    String Name;
+    Table.ColumnDataType Type;
+    int RowCount;
+    
+    // Only missing values seen so far that a Datetime column would also accept
+    boolean OnlyDateTimeMissing;
+    
+    // Type inference sample, null once the type is decided
+    ArrayList<String> Sample;
+    int SampleSize;
+    boolean SampleNumeric;
+    boolean SampleDateTime;
+    
+    // Numeric and Datetime (epoch seconds) data, NaN is missing
+    DoubleStorage Values;
+    
+    // Cell text that RenderValue does not give back, by ascending row, for a promotion to Levels
+    int[] Raw_rows;
+    String[] Raw_values;
+    int Raw_count;
+    
+    // Levels data, encoded without a cap so builders of chunks can be appended, the cap is applied by Build
+    IntStorage Codes;
+    LevelEncoder Levels;
+    int MaxLevels;
+    
+    public ColumnBuilder( String name )
+    {
+        this( name, new CsvReader.Settings() );
+    }
+    
+    public ColumnBuilder( String name, CsvReader.Settings settings )
+    {
+        this.Name = name;
+        this.Type = Table.ColumnDataType.Numeric;
+        this.RowCount = 0;
+        this.OnlyDateTimeMissing = true;
+        this.Values = DoubleStorage.Create( INITIAL_CAPACITY, settings.Storage );
+        this.Raw_rows = new int[16];
+        this.Raw_values = new String[16];
+        this.Raw_count = 0;
+        
+        this.SampleSize = settings.TypeSampleSize;
+        this.MaxLevels = settings.MaxLevels;
+        this.SampleNumeric = true;
+        this.SampleDateTime = true;
+        
+        if( SampleSize > 0 )
+            this.Sample = new ArrayList<>();
+    }
+    
+    public String GetName()
+    {
+        return Name;
+    }
+    
+    public Table.ColumnDataType GetType()
+    {
+        Decide();
+        return Type;
+    }
+    
+    public int GetRowCount()
+    {
+        return RowCount + (Sample == null ? 0 : Sample.size());
+    }
+    
+    public void Add( char[] buffer, int start, int end )
+    {
+        if( Sample == null && Type == Table.ColumnDataType.Numeric && AddNumber(buffer, start, end) )
+            return;
+        
+        Add( new String(buffer, start, end - start) );
+    }
+    
+    public void Add( String value )
+    {
+        if( Sample != null )
+        {
+            AddSample( value );
+            return;
+        }
+        
+        switch( Type )
+        {
+            case Numeric:
+                char[] chars = ToScratch( value );
+                
+                if( AddNumber(chars, 0, value.length()) )
+                    return;
+                
+                if( OnlyDateTimeMissing && IsDateTime(value) )
+                {
+                    double value_dt = ParseDateTime(value);
+                    
+                    if( !Double.isNaN(value_dt) )
+                    {   // Everything before was missing, same as NaN in a Datetime column
+                        Type = Table.ColumnDataType.Datetime;
+                        KeepRaw( value, value_dt );
+                        AddValue( value_dt );
+                        return;
+                    }
+                }
+                
+                PromoteToLevels();
+                AddLevel( value );
+                
+            break;
+            case Datetime:
+                if( IsDateTimeMissing(value) )
+                {
+                    KeepRaw( value, Double.NaN );
+                    AddValue( Double.NaN );
+                    return;
+                }
+                
+                if( IsDateTime(value) )
+                {
+                    double value_dt = ParseDateTime(value);
+                    
+                    if( !Double.isNaN(value_dt) )
+                    {
+                        KeepRaw( value, value_dt );
+                        AddValue( value_dt );
+                        return;
+                    }
+                }
+                
+                PromoteToLevels();
+                AddLevel( value );
+                
+            break;
+            case Levels:
+                AddLevel( value );
+                
+            break;
+            default:
+                throw new AssertionError();
+        }
+    }
+    
+    /**
+     * Add cell to a Numeric column straight from the read buffer.
+     * @return false if the cell is not a number or missing
+     */
+    private boolean AddNumber( char[] buffer, int start, int end )
+    {
+        if( Column_Number.IsMissing(buffer, start, end) )
+        {
+            if( end - start == 2 || end - start == 3 ) // NA and NaN are not missing values for Datetime
+                OnlyDateTimeMissing = false;
+            
+            if( end > start )
+                KeepRaw( new String(buffer, start, end - start) );
+            
+            AddValue( Double.NaN );
+            return true;
+        }
+        
+        if( Column_Number.IsNumber(buffer, start, end) )
+        {
+            double value = Column_Number.ParseNumber(buffer, start, end);
+            
+            if( !IsPlainNumber(buffer, start, end) )
+                KeepRaw( new String(buffer, start, end - start) );
+            
+            AddValue( value );
+            OnlyDateTimeMissing = false;
+            return true;
+        }
+        
+        return false;
+    }
+    
+    // Number text that RenderValue gives back: minus sign only, no leading zero, no trailing zero after the point, at most 15 digits
+    private static boolean IsPlainNumber( char[] buffer, int start, int end )
+    {
+        int digits = start;
+        if( end > digits && buffer[digits] == '-' )
+            digits++;
+        
+        int point = -1;
+        for(int i = digits; i < end; i++)
+        {
+            if( buffer[i] == '.' && point < 0 )
+                point = i;
+            else if( buffer[i] < '0' || buffer[i] > '9' )
+                return false;
+        }
+        
+        int integer_end = (point < 0 ? end : point);
+        
+        if( integer_end == digits || (buffer[digits] == '0' && integer_end - digits > 1) )
+            return false;
+        
+        if( point < 0 )
+            return end - digits <= 15 && !(buffer[digits] == '0' && digits > start);
+        
+        if( end - point < 2 || buffer[end - 1] == '0' )
+            return false;
+        
+        // Significant digits, zeros after the point of a value below 1 do not count
+        int first = digits;
+        if( buffer[digits] == '0' )
+        {
+            first = point + 1;
+            while( buffer[first] == '0' )
+                first++;
+        }
+        
+        return end - first - (first < point ? 1 : 0) <= 15;
+    }
+    
+    private char[] Scratch = new char[64];
+    
+    private char[] ToScratch( String value )
+    {
+        if( value.length() > Scratch.length )
+            Scratch = new char[ Math.max( value.length(), Scratch.length * 2 ) ];
+        
+        value.getChars(0, value.length(), Scratch, 0);
+        return Scratch;
+    }
+    
+    private void AddSample( String value )
+    {
+        Sample.add( value );
+        
+        if( SampleNumeric )
+        {
+            char[] chars = ToScratch( value );
+            
+            if( !Column_Number.IsMissing(chars, 0, value.length()) && !Column_Number.IsNumber(chars, 0, value.length()) )
+                SampleNumeric = false;
+        }
+        
+        if( SampleDateTime && !IsDateTimeMissing(value) && !IsDateTime(value) )
+            SampleDateTime = false;
+        
+        if( Sample.size() >= SampleSize )
+            Decide();
+    }
+    
+    /**
+     * Decide column type from the sample and add the sampled cells as the first rows.
+     */
+    private void Decide()
+    {
+        if( Sample == null )
+            return;
+        
+        ArrayList<String> sample = Sample;
+        Sample = null;
+        
+        if( SampleNumeric )
+            Type = Table.ColumnDataType.Numeric;
+        else if( SampleDateTime )
+            Type = Table.ColumnDataType.Datetime;
+        else
+            PromoteToLevels();
+        
+        for(int i = 0; i < sample.size(); i++)
+            Add( sample.get(i) );
+    }
+    
+    /**
+     * Keep the text of the cell about to be added if its value does not render back to it.
+     */
+    private void KeepRaw( String text, double value )
+    {
+        if( !text.equals( RenderValue(value) ) )
+            KeepRaw( text );
+    }
+    
+    /**
+     * Keep the text of the cell about to be added.
+     */
+    private void KeepRaw( String text )
+    {
+        if( Raw_count == Raw_rows.length )
+        {
+            Raw_rows = Arrays.copyOf( Raw_rows, Raw_count * 2 );
+            Raw_values = Arrays.copyOf( Raw_values, Raw_count * 2 );
+        }
+        
+        Raw_rows[Raw_count] = RowCount;
+        Raw_values[Raw_count] = text;
+        Raw_count++;
+    }
+    
+    private void AddValue( double value )
+    {
+        if( RowCount == Values.Size() )
+            Values = Values.Resize( Values.Size() * 2 );
+        
+        Values.Set( RowCount, value );
+        RowCount++;
+    }
+    
+    private void AddLevel( String value )
+    {
+        int code = Levels.Encode(value);
+        
+        if( RowCount == Codes.Size() )
+            Codes = Codes.Resize( Codes.Size() * 2 );
+        
+        Codes.Set( RowCount, code );
+        RowCount++;
+    }
+    
+    /**
+     * Append rows of another builder of the same column, types are reconciled first.
+     * @param other builder holding the rows that follow this builders rows
+     */
+    public void Append( ColumnBuilder other )
+    {
+        Decide();
+        other.Decide();
+        
+        // Reconcile types
+        if( Type != other.Type )
+        {
+            if( Type == Table.ColumnDataType.Levels || other.Type == Table.ColumnDataType.Levels )
+            {
+                PromoteToLevels();
+                other.PromoteToLevels();
+            }
+            else if( Type == Table.ColumnDataType.Numeric && OnlyDateTimeMissing )
+            {   // Nothing but missing values, same as NaN in a Datetime column
+                Type = Table.ColumnDataType.Datetime;
+            }
+            else if( other.Type == Table.ColumnDataType.Numeric && other.OnlyDateTimeMissing )
+            {
+                other.Type = Table.ColumnDataType.Datetime;
+            }
+            else
+            {
+                PromoteToLevels();
+                other.PromoteToLevels();
+            }
+        }
+        
+        OnlyDateTimeMissing = OnlyDateTimeMissing && other.OnlyDateTimeMissing;
+        
+        // Concatenate
+        if( Type == Table.ColumnDataType.Levels )
+        {
+            // Recode the other builders levels once, then map its rows
+            int[] recode = new int[ other.Levels.GetLevelCount() ];
+            for(int l = 0; l < recode.length; l++)
+                recode[l] = Levels.Encode( other.Levels.GetLevel(l) );
+            
+            if( RowCount + other.RowCount > Codes.Size() )
+                Codes = Codes.Resize( Math.max( Codes.Size() * 2, RowCount + other.RowCount ) );
+            
+            for(int i = 0; i < other.RowCount; i++)
+                Codes.Set( RowCount + i, recode[ other.Codes.Get(i) ] );
+            
+            RowCount += other.RowCount;
+        }
+        else
+        {
+            if( RowCount + other.RowCount > Values.Size() )
+                Values = Values.Resize( Math.max( Values.Size() * 2, RowCount + other.RowCount ) );
+            
+            Values.CopyFrom( other.Values, 0, RowCount, other.RowCount );
+            
+            // Kept text of the other builders rows follows, shifted by the rows before
+            if( Raw_count + other.Raw_count > Raw_rows.length )
+            {
+                Raw_rows = Arrays.copyOf( Raw_rows, Raw_count + other.Raw_count );
+                Raw_values = Arrays.copyOf( Raw_values, Raw_count + other.Raw_count );
+            }
+            
+            for(int k = 0; k < other.Raw_count; k++)
+            {
+                Raw_rows[Raw_count + k] = RowCount + other.Raw_rows[k];
+                Raw_values[Raw_count + k] = other.Raw_values[k];
+            }
+            
+            Raw_count += other.Raw_count;
+            RowCount += other.RowCount;
+        }
+    }
+    
+    private void PromoteToLevels()
+    {
+        if( Type == Table.ColumnDataType.Levels )
+            return;
+        
+        Codes = IntStorage.Create( Math.max(INITIAL_CAPACITY, Values.Size()), Values.GetMode() );
+        Levels = new LevelEncoder();
+        
+        int row_count = RowCount;
+        RowCount = 0;
+        
+        // Cell text where kept, else the value rendered
+        int k = 0;
+        for(int i = 0; i < row_count; i++)
+        {
+            if( k < Raw_count && Raw_rows[k] == i )
+                AddLevel( Raw_values[k++] );
+            else
+                AddLevel( RenderValue(Values.Get(i)) );
+        }
+        
+        Values = null;
+        Raw_rows = null;
+        Raw_values = null;
+        Raw_count = 0;
+        Type = Table.ColumnDataType.Levels;
+    }
+    
+    private String RenderValue( double value )
+    {
+        if( Double.isNaN(value) )
+            return "";
+        
+        if( Type == Table.ColumnDataType.Datetime )
+        {
+            LocalDateTime value_dt = LocalDateTime.ofEpochSecond( (long) value, 0, ZoneOffset.UTC );
+            
+            // Dates at midnight as they are usually written, other forms are kept as text
+            if( value_dt.toLocalTime().equals( LocalTime.MIDNIGHT ) )
+                return value_dt.toLocalDate().toString();
+            
+            return value_dt.toString();
+        }
+        
+        if( value == Math.rint(value) && Math.abs(value) < 1e15 )
+            return Long.toString( (long) value );
+        
+        // Shortest plain decimal that parses back to the value
+        BigDecimal exact = new BigDecimal(value);
+        
+        for(int digits = 1; digits < 17; digits++)
+        {
+            BigDecimal rounded = exact.round( new MathContext(digits) );
+            
+            if( rounded.doubleValue() == value )
+                return rounded.stripTrailingZeros().toPlainString();
+        }
+        
+        return exact.round( new MathContext(17) ).stripTrailingZeros().toPlainString();
+    }
+    
+    public Column Build()
+    {
+        Decide();
+        
+        switch( Type )
+        {
+            case Numeric:
+                return new Column_Number( Name, Values, RowCount );
+            case Datetime:
+                return new Column_DateTime( Name, Values, RowCount );
+            case Levels:
+                ApplyLevelCap();
+                Column_Levels levels = new Column_Levels( Name, Levels.GetLevels(), Codes, RowCount );
+                levels.MaxLevels = MaxLevels;
+                return levels;
+            default:
+                throw new AssertionError();
+        }
+    }
+    
+    /**
+     * Cap the levels as a capped encoder reading all rows in order would, levels are in order of first appearance.
+     */
+    private void ApplyLevelCap()
+    {
+        if( MaxLevels <= 0 )
+            return;
+        
+        LevelEncoder capped = new LevelEncoder(MaxLevels);
+        int[] recode = new int[ Levels.GetLevelCount() ];
+        boolean same = true;
+        
+        for(int l = 0; l < recode.length; l++)
+        {
+            recode[l] = capped.Encode( Levels.GetLevel(l) );
+            same &= (recode[l] == l);
+        }
+        
+        if( same )
+            return;
+        
+        for(int i = 0; i < RowCount; i++)
+            Codes.Set( i, recode[ Codes.Get(i) ] );
+        
+        Levels = capped;
+    }
+    
+    static boolean IsDateTimeMissing( String value )
+    {
+        return
+                value.equals("NULL") ||
+                value.equals("null") ||
+                value.length() == 0;
+    }
+    
+    /**
+     * Cheap check for an ISO date (yyyy-mm-dd) or date time (yyyy-mm-ddThh:mm...).
+     * A value passing the check can still fail to parse, e.g. on month 13.
+     * @param value cell text
+     * @return true if the value looks like a date
+     */
+    static boolean IsDateTime( String value )
+    {
+        if( value.length() < 10 )
+            return false;
+        
+        for(int i = 0; i < 10; i++)
+        {
+            char c = value.charAt(i);
+            
+            if( i == 4 || i == 7 )
+            {
+                if( c != '-' )
+                    return false;
+            }
+            else if( c < '0' || c > '9' )
+                return false;
+        }
+        
+        if( value.length() > 13 )
+            return value.charAt(10) == 'T';
+        
+        return value.length() == 10 || value.charAt(10) == 'Z' || value.charAt(10) == '+' || value.charAt(10) == '-';
+    }
+    
+    /**
+     * Parse ISO date or date time as epoch seconds.
+     * @param value ISO formatted date (yyyy-mm-dd) or date time
+     * @return epoch seconds, or NaN if value is not a date
+     */
+    static double ParseDateTime( String value )
+    {
+        try
+        {
+            LocalDateTime value_dt;
+            
+            if( value.length() > 13 )
+                value_dt = LocalDateTime.parse(value, DateTimeFormatter.ISO_DATE_TIME);
+            else
+                value_dt = LocalDate.parse(value, DateTimeFormatter.ISO_DATE).atTime(0, 0, 0);
+            
+            return (double) value_dt.toEpochSecond(ZoneOffset.UTC);
+        }
+        catch(java.time.format.DateTimeParseException e)
+        {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Jacob Cornelius Mosebo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package nn1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Single pass count, min, max, mean and variance of a numeric column, missing values (NaN) are skipped.
+ * Mean and variance use the Welford update, partial results over row ranges merge with the Chan et al. formula.
+ * Values are shifted by the first value seen so large offsets (epoch seconds) do not eat the mantissa of the running mean.
+ */
+public class ColumnStatistics
+{
+    // Rows per parallel chunk, smaller columns are computed in the calling thread
+    static final int CHUNK_SIZE = 1 << 18;
+    
+    long Count = 0;
+    double Min = Double.POSITIVE_INFINITY;
+    double Max = Double.NEGATIVE_INFINITY;
+    double Shift = 0d;
+    double Mean = 0d; // Relative to Shift
+    double M2 = 0d; // Sum of squared deviations from Mean
+    
+    public ColumnStatistics()
+    {
+    }
+    
+    /**
+     * Restore statistics from a summary.
+     * @param count number of values
+     * @param min
+     * @param max
+     * @param mean
+     * @param variance population variance
+     */
+    public ColumnStatistics( long count, double min, double max, double mean, double variance )
+    {
+        if( count == 0 )
+            return;
+        
+        Count = count;
+        Min = min;
+        Max = max;
+        Shift = mean;
+        M2 = variance * count;
+    }
+    
+    /**
+     * Add value, NaN is ignored.
+     * @param value 
+     */
+    public void Add( double value )
+    {
+        if( Double.isNaN(value) )
+            return;
+        
+        if( Count == 0 )
+            Shift = value;
+        
+        Count++;
+        
+        if( value < Min )
+            Min = value;
+        if( value > Max )
+            Max = value;
+        
+        double shifted = value - Shift;
+        double delta = shifted - Mean;
+        Mean += delta / Count;
+        M2 += delta * (shifted - Mean);
+    }
+    
+    /**
+     * Take back a value that was added, NaN is ignored.
+     * Mean and variance are exact, min and max are not narrowed and stay bounds of the remaining values.
+     * @param value 
+     */
+    public void Remove( double value )
+    {
+        if( Double.isNaN(value) )
+            return;
+        
+        if( Count <= 1 )
+        {
+            Count = 0;
+            Mean = 0d;
+            M2 = 0d;
+            return;
+        }
+        
+        double shifted = value - Shift;
+        double mean = Mean - (shifted - Mean) / (Count - 1);
+        
+        M2 = Math.max( 0d, M2 - (shifted - mean) * (shifted - Mean) );
+        Mean = mean;
+        Count--;
+    }
+    
+    /**
+     * Combine with the statistics of another set of values.
+     * @param other 
+     */
+    public void Merge( ColumnStatistics other )
+    {
+        if( other.Count == 0 )
+            return;
+        
+        if( Count == 0 )
+        {
+            Count = other.Count;
+            Min = other.Min;
+            Max = other.Max;
+            Shift = other.Shift;
+            Mean = other.Mean;
+            M2 = other.M2;
+            return;
+        }
+        
+        long count = Count + other.Count;
+        double delta = (other.Shift - Shift) + (other.Mean - Mean);
+        
+        Mean += delta * ( (double) other.Count / count );
+        M2 += other.M2 + delta * delta * ( (double) Count * other.Count / count );
+        Count = count;
+        
+        Min = Math.min( Min, other.Min );
+        Max = Math.max( Max, other.Max );
+    }
+    
+    public long GetCount()
+    {
+        return Count;
+    }
+    
+    public double GetMin()
+    {
+        return Min;
+    }
+    
+    public double GetMax()
+    {
+        return Max;
+    }
+    
+    /**
+     * @return mean, NaN if there are no values
+     */
+    public double GetMean()
+    {
+        return Count == 0 ? Double.NaN : Shift + Mean;
+    }
+    
+    /**
+     * @return population variance, NaN if there are no values
+     */
+    public double GetVariance()
+    {
+        return Count == 0 ? Double.NaN : M2 / Count;
+    }
+    
+    /**
+     * Statistics of the rows [from, to).
+     */
+    public static ColumnStatistics Compute( DoubleStorage data, int from, int to )
+    {
+        ColumnStatistics stats = new ColumnStatistics();
+        
+        for(int i = from; i < to; i++)
+            stats.Add( data.Get(i) );
+        
+        return stats;
+    }
+    
+    /**
+     * Statistics of the first size rows, large columns are split in chunks computed on the common pool.
+     */
+    public static ColumnStatistics Compute( DoubleStorage data, int size )
+    {
+        return Compute( data, size, ForkJoinPool.commonPool() );
+    }
+    
+    public static ColumnStatistics Compute( DoubleStorage data, int size, ForkJoinPool pool )
+    {
+        if( size <= CHUNK_SIZE )
+            return Compute( data, 0, size );
+        
+        ArrayList<ChunkTask> tasks = new ArrayList<>();
+        for(int from = 0; from < size; from += CHUNK_SIZE)
+            tasks.add( new ChunkTask( data, from, Math.min( from + CHUNK_SIZE, size ) ) );
+        
+        for(ChunkTask task : tasks)
+            pool.execute(task);
+        
+        // Merge in row order, the result does not depend on scheduling
+        ColumnStatistics stats = new ColumnStatistics();
+        for(ChunkTask task : tasks)
+            stats.Merge( task.join() );
+        
+        return stats;
+    }
+    
+    /**
+     * k-th smallest non-missing value of the first size rows, expected O(n) quickselect on a copy of the values.
+     * @param data
+     * @param size
+     * @param k order among non-missing values, 0 is the minimum
+     */
+    public static double Select( DoubleStorage data, int size, int k )
+    {
+        double[] values = new double[size];
+        int count = 0;
+        
+        for(int i = 0; i < size; i++)
+        {
+            double value = data.Get(i);
+            if( !Double.isNaN(value) )
+                values[count++] = value;
+        }
+        
+        if( k < 0 || k >= count )
+            throw new IndexOutOfBoundsException("Order " + k + " of " + count + " values");
+        
+        int lo = 0;
+        int hi = count - 1;
+        
+        // Give up on bad pivots after a few rounds and sort the remainder
+        int rounds = 2 * (32 - Integer.numberOfLeadingZeros(count));
+        
+        while( hi > lo )
+        {
+            if( rounds-- == 0 )
+            {
+                Arrays.sort( values, lo, hi + 1 );
+                break;
+            }
+            
+            // Median of three pivot
+            int mid = (lo + hi) >>> 1;
+            double pivot = Math.max( Math.min( values[lo], values[mid] ), Math.min( Math.max( values[lo], values[mid] ), values[hi] ) );
+            
+            // Hoare partition
+            int i = lo;
+            int j = hi;
+            while( i <= j )
+            {
+                while( values[i] < pivot )
+                    i++;
+                while( values[j] > pivot )
+                    j--;
+                
+                if( i <= j )
+                {
+                    double swap = values[i];
+                    values[i] = values[j];
+                    values[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            
+            if( k <= j )
+                hi = j;
+            else if( k >= i )
+                lo = i;
+            else
+                break;
+        }
+        
+        return values[k];
+    }
+    
+    /**
+     * Row of the k-th smallest non-missing value of the first size rows, in the order of the sort index:
+     * Double.compare, equal values in row order. The value is found by Select, then its row by counting.
+     * @param data
+     * @param size
+     * @param k order among non-missing values, 0 is the minimum
+     */
+    public static int SelectRow( DoubleStorage data, int size, int k )
+    {
+        double value = Select( data, size, k );
+        
+        int less = 0;
+        for(int i = 0; i < size; i++)
+            if( data.Get(i) < value )
+                less++;
+        
+        // Rows equal to the value, -0.0 sorts before 0.0
+        int skip = k - less;
+        for(int sign = 1; sign >= 0; sign--)
+            for(int i = 0; i < size; i++)
+            {
+                double x = data.Get(i);
+                if( x == value && (Double.doubleToRawLongBits(x) < 0) == (sign == 1) && skip-- == 0 )
+                    return i;
+            }
+        
+        throw new AssertionError();
+    }
+    
+    @SuppressWarnings("serial")
+    private static class ChunkTask extends RecursiveTask<ColumnStatistics>
+    {
+        final DoubleStorage Data;
+        final int From;
+        final int To;
+        
+        ChunkTask( DoubleStorage data, int from, int to )
+        {
+            this.Data = data;
+            this.From = from;
+            this.To = to;
+        }
+        
+        @Override
+        protected ColumnStatistics compute()
+        {
+            return Compute( Data, From, To );
+        }
+    }
+    
+}
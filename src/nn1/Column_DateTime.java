@@ -28,17 +28,14 @@ import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
 
 /**
- *
+ * Datetime column, each value is the date time read as whole epoch seconds (UTC).
+ * Parsing keeps the local date and time only: sub-second parts and any offset in the text are dropped,
+ * so GetValue_String renders the value and not the text read.
  */
-public class Column_DateTime extends Column
+public class Column_DateTime extends Column_Numeric
 {
-
-    String Name;
-    
     public Column_DateTime()
     {
         this.Name = "Validator";
@@ -57,6 +54,33 @@ public class Column_DateTime extends Column
         Compile();
     }
     
+    /**
+     * Create column on top of primitive data, the array is used as is.
+     * @param name column name
+     * @param epochSeconds values as epoch seconds (UTC), NaN is missing
+     * @param size number of rows used in data
+     */
+    public Column_DateTime( String name, double[] epochSeconds, int size )
+    {
+        this( name, DoubleStorage.Wrap(epochSeconds), size );
+    }
+    
+    /**
+     * Create column on top of stored data, the store is used as is and derived data is kept in the same storage mode.
+     * @param name column name
+     * @param epochSeconds values as epoch seconds (UTC), NaN is missing
+     * @param size number of rows used in data
+     */
+    public Column_DateTime( String name, DoubleStorage epochSeconds, int size )
+    {
+        this.Name = name;
+        
+        DataAsDouble = epochSeconds;
+        RowCount = size;
+        
+        Compile();
+    }
+    
     public static final Column Validator = new Column_DateTime();
     
     /**
@@ -99,8 +123,6 @@ public class Column_DateTime extends Column
         return true;
     }
     
-    ArrayList<LocalDateTime> DataAsDateTime;
-    
     /**
      *
      * @param data
@@ -108,303 +130,48 @@ public class Column_DateTime extends Column
     @Override
     public final void AddData( ArrayList<String> data )
     {
-        DataAsDateTime = new ArrayList<>();
+        DataAsDouble = DoubleStorage.Wrap( new double[data.size()] );
+        RowCount = data.size();
         
         for(int i = 0; i < data.size(); i++)
         {
             String value = data.get(i);
             
-            if( value.equals("NULL") )
-                DataAsDateTime.add( null );
-            
-            if( value.equals("null") )
-                DataAsDateTime.add( null );
+            if( value.equals("NULL") || value.equals("null") || value.length() == 0 )
+            {
+                DataAsDouble.Set(i, Double.NaN);
+                continue;
+            }
             
-            if( value.length() == 0 )
-                DataAsDateTime.add( null );
+            LocalDateTime value_dt;
             
             if( value.length() > 13 )
-            {
-                DataAsDateTime.add( LocalDateTime.parse(value, DateTimeFormatter.ISO_DATE_TIME) );
-            }
+                value_dt = LocalDateTime.parse(value, DateTimeFormatter.ISO_DATE_TIME);
             else
-            {
-                DataAsDateTime.add( LocalDate.parse(value, DateTimeFormatter.ISO_DATE).atTime(0, 0, 0) );
-            }
+                value_dt = LocalDate.parse(value, DateTimeFormatter.ISO_DATE).atTime(0, 0, 0);
             
+            DataAsDouble.Set(i, (double) value_dt.toEpochSecond(ZoneOffset.UTC));
         }
     }
     
-    @Override
-    public String GetName()
-    {
-        return Name;
-    }
-    
-    @Override
-    public int GetWidth()
-    {
-        return 1;
-    }
-    
-    @Override
-    public int GetRowCount()
-    {
-        return DataAsDouble.size();
-    }
-    
     @Override
     public Table.ColumnDataType GetType()
     {
         return Table.ColumnDataType.Datetime;
     }
     
-    
-    ArrayList<Double> DataAsDouble;
-    ArrayList<Double> DataAsDoubleNorm;
-    boolean needs_recompile = false;
-    
-    Double Stat_min;
-    Double Stat_max;
-    Double Stat_norm_avg;
-    Double Stat_norm_var;
-    int Stat_nonNa_cnt;
-    
-    int[] SortIndex;
-    
-    @Override
-    public final void Compile()
-    {
-        
-        // Convert to double
-        DataAsDouble = new ArrayList<>();
-        
-        Stat_min = Double.POSITIVE_INFINITY;
-        Stat_max = Double.NEGATIVE_INFINITY;
-        Stat_nonNa_cnt = 0;
-        
-        for(int i = 0; i < DataAsDateTime.size(); i++)
-        {
-            LocalDateTime value_dt = DataAsDateTime.get(i);
-            Double value;
-            
-            if(value_dt == null)
-                value = Double.NaN;
-            else
-            {
-                value = (double) value_dt.toEpochSecond(ZoneOffset.UTC);
-                Stat_nonNa_cnt++;
-                
-                // Min, Max
-                if( value > Stat_max )
-                    Stat_max = value;
-
-                if( value < Stat_min )
-                    Stat_min = value;
-            }
-            
-            DataAsDouble.add(value);
-        }
-        
-        // Mean
-        DataAsDoubleNorm = new ArrayList<>();
-        
-        Stat_norm_avg = 0d;
-        for(int i = 0; i < DataAsDouble.size(); i++)
-        {
-            Double value = DataAsDouble.get(i);
-            
-            if(!value.isNaN())
-            {
-                Double value_norm = (value - Stat_min) / (Stat_max - Stat_min);
-                
-                DataAsDoubleNorm.add(value_norm);
-                Stat_norm_avg += value_norm;
-            }
-            else
-            {
-                DataAsDoubleNorm.add(Double.NaN);
-            }
-            
-        }
-        Stat_norm_avg = Stat_norm_avg / Stat_nonNa_cnt;
-        
-        // Var
-        Stat_norm_var = 0d;
-        for(int i = 0; i < DataAsDoubleNorm.size(); i++)
-        {
-            Double value_norm = DataAsDoubleNorm.get(i);
-            
-            if(!value_norm.isNaN())
-            {
-                Stat_norm_var += Math.pow(Stat_norm_avg - value_norm, 2d);
-            }
-        }
-        Stat_norm_var = Stat_norm_var / Stat_nonNa_cnt;
-        
-        // Build sort index
-        SortIndex = new int[DataAsDouble.size()];
-        Integer[] SortIndexObj = new Integer[DataAsDouble.size()];
-        for(int i = 0; i < DataAsDouble.size(); i++)
-            SortIndexObj[i] = i;
-        
-        Arrays.sort( SortIndexObj, new Comparator<Integer>() {
-            public int compare(Integer o1, Integer o2) {
-                return DataAsDouble.get(o1).compareTo( DataAsDouble.get(o2) );
-            }
-        });
-        
-        for(int i = 0; i < DataAsDouble.size(); i++)
-            SortIndex[i] = SortIndexObj[i];
-    }
-    
-    @Override
-    public void SetValue_Numeric(int row, int position, Double value_new )
-    {
-        // Set DAtetime valu
-        //int dec = (int) value;
-        //double nan = (value - dec) * 1000000000;
-        
-        
-        // Min/Max change requires renormalized column
-        if( value_new > Stat_max)
-        {
-            Stat_max = value_new;
-            needs_recompile = true;
-            return;
-        }
-        
-        if( value_new < Stat_min)
-        {
-            Stat_min = value_new;
-            needs_recompile = true;
-            return;
-        }
-        
-        Double value_old = DataAsDouble.get(row);
-        Double value_old_norm = DataAsDoubleNorm.get(row);
-        
-        // old = new
-        if( value_old.equals(value_new))
-            return;
-        
-        
-        if( value_old.isNaN() && !value_new.isNaN() )
-        {   // old = NaN, new = value
-            double value_new_norm = NormalizeValue( value_new );
-            
-            DataAsDouble.set(row, value_new);
-            DataAsDoubleNorm.set(row, value_new_norm );
-            
-            Stat_norm_avg = ((Stat_norm_avg * Stat_nonNa_cnt) + value_new_norm) / (Stat_nonNa_cnt + 1);
-            Stat_norm_var = ((Stat_norm_var * Stat_nonNa_cnt) + Math.pow(Stat_norm_avg - value_new_norm, 2d)) / (Stat_nonNa_cnt + 1);
-            
-            Stat_nonNa_cnt++;
-        }
-        else
-        if( !value_old.isNaN() && value_new.isNaN() )
-        {   // old = value, new = NaN
-            DataAsDouble.set(row, Double.NaN );
-            DataAsDoubleNorm.set(row, Double.NaN );
-            
-            Stat_norm_avg = ((Stat_norm_avg * Stat_nonNa_cnt) - value_old_norm) / (Stat_nonNa_cnt - 1);
-            Stat_norm_var = ((Stat_norm_var * Stat_nonNa_cnt) - Math.pow(Stat_norm_avg - value_old_norm, 2d)) / (Stat_nonNa_cnt - 1);
-            Stat_nonNa_cnt--;
-        }
-        else
-        {   // old = new
-            double value_new_norm = NormalizeValue( value_new );
-            
-            DataAsDouble.set(row, value_new);
-            DataAsDoubleNorm.set(row, value_new_norm );
-            
-            Stat_norm_avg = ((Stat_norm_avg * Stat_nonNa_cnt) + (value_new_norm - value_old_norm) ) / (Stat_nonNa_cnt);
-            Stat_norm_var = ((Stat_norm_var * Stat_nonNa_cnt) + Math.pow(Stat_norm_avg - (value_new_norm - value_old_norm), 2d)) / (Stat_nonNa_cnt);
-        }
-        
-    }
-    
-    @Override
-    public Double GetValue_Normalized(int row, int position)
-    {
-        if(needs_recompile)
-            Compile();
-        
-        return DataAsDoubleNorm.get(row);
-    }
-    
-    @Override
-    Double[] GetValues_Normalized( int position )
-    {
-        int row_count = GetRowCount();
-        Double[] arr = new Double[row_count];
-        return DataAsDoubleNorm.toArray(arr);
-    }
-    
-    @Override
-    public Double GetValue_Numeric(int row, int position)
-    {
-        return DataAsDouble.get(row);
-    }
-    
+    /**
+     * Value as ISO date time, rendered from the epoch seconds, without the sub-seconds or offset of the text read.
+     */
     @Override
     public String GetValue_String(int row)
     {
-        LocalDateTime value = DataAsDateTime.get(row);
+        double value = DataAsDouble.Get(row);
         
-        if(value == null)
+        if( Double.isNaN(value) )
             return "";
         else
-            return DataAsDateTime.get(row).toString();
-    }
-    
-    @Override
-    public Double GetValue_Min()
-    {
-        return Stat_min;
-    }
-    
-    @Override
-    public Double GetValue_Max()
-    {
-        return Stat_max;
-    }
-    
-    @Override
-    public Double GetValue_Avg(int position)
-    {
-        return DenormalizeValue(Stat_norm_avg);
+            return LocalDateTime.ofEpochSecond( (long) value, 0, ZoneOffset.UTC ).toString();
     }
     
-    @Override
-    public Double GetValue_Var(int position)
-    {
-        // Does var scale???
-        return DenormalizeValue(Stat_norm_var);
-    }
-    
-    @Override 
-    public int GetRowIndex_NormalizedSorted(int order, int position)
-    {
-        return SortIndex[order];
-    }
-    
-    @Override
-    public int GetRowIndex_Median(int position)
-    {
-        return (int) Math.floor( (double) DataAsDouble.size() * 0.5 );
-    }
-    
-    @Override
-    public double DenormalizeValue( double value)
-    {
-        return (value * ( Stat_max - Stat_min ) ) + Stat_min;
-    }
-    
-    @Override
-    public double NormalizeValue( double value)
-    {
-        return (value - Stat_min) / ( Stat_max - Stat_min );
-    }
-        
 }
@@ -25,12 +25,12 @@ package nn1;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.BitSet;
+import java.util.HashMap;
 
 /**
- *
+ * Levels (factor) column, stored dictionary encoded: the distinct values once and a level code per row.
+ * The one-hot representation (one position per level) is derived from the codes on access.
  */
 public class Column_Levels extends Column
 {
@@ -54,6 +54,36 @@ public class Column_Levels extends Column
         this.Compile();
     }
     
+    /**
+     * Create column on top of encoded data, the arrays are used as is.
+     * @param name column name
+     * @param levels distinct values, index is the level code
+     * @param codes level code per row, -1 for none
+     * @param size number of rows used in codes
+     */
+    public Column_Levels( String name, String[] levels, int[] codes, int size )
+    {
+        this( name, levels, IntStorage.Wrap(codes), size );
+    }
+    
+    /**
+     * Create column on top of stored codes, the store is used as is.
+     * @param name column name
+     * @param levels distinct values, index is the level code
+     * @param codes level code per row, -1 for none
+     * @param size number of rows used in codes
+     */
+    public Column_Levels( String name, String[] levels, IntStorage codes, int size )
+    {
+        this.Name = name;
+        
+        LevelValues = levels;
+        Codes = codes;
+        RowCount = size;
+        
+        this.Compile();
+    }
+    
     public static final Column Validator = new Column_Levels();
     
     /**
@@ -67,9 +97,15 @@ public class Column_Levels extends Column
         return true;
     }
     
-    ArrayList<Boolean[]> DataAsBools;
     String[] LevelValues;
     
+    // Level code per row, -1 for none
+    IntStorage Codes;
+    int RowCount;
+    
+    // Cap of the encoder the column was read with, kept for appended rows, 0 for no cap
+    int MaxLevels;
+    
     /**
      *
      * @param data
@@ -77,44 +113,16 @@ public class Column_Levels extends Column
     @Override
     public final void AddData( ArrayList<String> data )
     {
-        // Convert Levels into Byte array
-        HashSet UniqueValuesSet = new HashSet();
-        ArrayList<String> UniqueValueList = new ArrayList<>();
-
-        for (Iterator<String> itCol = data.iterator(); itCol.hasNext(); ) 
-        {
-            String value = itCol.next();
-            
-            if( UniqueValuesSet.contains(value) )
-                continue;
-            
-            UniqueValuesSet.add(value);
-            UniqueValueList.add(value);
-        }
-
-        LevelValues = (String[]) UniqueValueList.toArray(new String[UniqueValuesSet.size()]);
-
-        // Copy column levels/factors into bit array
-        DataAsBools = new ArrayList<>();
-
+        // Encode levels in order of first appearance
+        LevelEncoder encoder = new LevelEncoder();
+        
+        Codes = IntStorage.Wrap( new int[data.size()] );
+        RowCount = data.size();
+        
         for( int lineIdx = 0; lineIdx < data.size(); lineIdx++)
-        {
-            Boolean[] RowAsBools = new Boolean[ LevelValues.length ];
-            Arrays.fill(RowAsBools, false);
-
-            DataAsBools.add(RowAsBools);
-
-            for( int i = 0; i < LevelValues.length; i++)
-            {
-                if(data.get(lineIdx).equals(LevelValues[i]))
-                {
-                    RowAsBools[i] = true;
-                }
-
-            }
-
-        }
-
+            Codes.Set(lineIdx, encoder.Encode( data.get(lineIdx) ));
+        
+        LevelValues = encoder.GetLevels();
     }
     
     @Override
@@ -132,7 +140,7 @@ public class Column_Levels extends Column
     @Override
     public int GetRowCount()
     {
-        return DataAsDouble.size();
+        return RowCount;
     }
     
     @Override
@@ -146,127 +154,215 @@ public class Column_Levels extends Column
         return LevelValues;
     }
     
-    ArrayList<Double[]> DataAsDouble;
+    // Rows per level, the statistics of a one-hot position follow from it
+    int[] LevelCounts;
     
-    Double[] Stat_avg;
-    Double[] Stat_var;
-    
-    int[][] SortIndex;
+    // Built per level on first use
+    IntStorage[] SortIndex;
     
     @Override
     public final void Compile()
     {
-        // Convert to double
-        DataAsDouble = new ArrayList<>();
+        LevelCounts = new int[ LevelValues.length ];
         
-        for(int i = 0; i < DataAsBools.size(); i++)
+        for(int i = 0; i < RowCount; i++)
         {
-            Double[] row = new Double[ LevelValues.length ];
-            
-            for(int p = 0; p < LevelValues.length; p++)
-            {
-                if( DataAsBools.get(i)[p] )
-                    row[p] = 1.0d;
-                else
-                    row[p] = 0.0d;
-            }
-            
-            DataAsDouble.add(row);
-            
+            if( Codes.Get(i) >= 0 )
+                LevelCounts[ Codes.Get(i) ]++;
         }
         
-        // Generate stats
-                
-        // Mean
-        Stat_avg = new Double[ LevelValues.length ];
-        Arrays.fill(Stat_avg, 0d);
+        SortIndex = new IntStorage[ LevelValues.length ];
+    }
+    
+    /**
+     * Append rows, levels new to this column are added after the existing ones and widen it.
+     * Under a level cap the levels beyond it go to LevelEncoder.OTHER_LEVEL as when reading.
+     * @param other column holding the new rows, rows of a column that is not Levels get no level
+     */
+    @Override
+    void AppendRows( Column other )
+    {
+        int from = RowCount;
+        int count = other.GetRowCount();
+        Column_Levels levels = other instanceof Column_Levels ? (Column_Levels) other : null;
         
-        for(int i = 0; i < DataAsBools.size(); i++)
+        // Codes of the other column in this one
+        int[] recode = new int[ levels != null ? levels.LevelValues.length : 0 ];
+        
+        if( levels != null )
         {
-            for(int p = 0; p < LevelValues.length; p++)
+            HashMap<String,Integer> index = new HashMap<>();
+            for(int l = 0; l < LevelValues.length; l++)
+                index.put( LevelValues[l], l );
+            
+            ArrayList<String> added = new ArrayList<>();
+            
+            for(int l = 0; l < recode.length; l++)
             {
-                Stat_avg[p] += DataAsDouble.get(i)[p];
+                String value = levels.LevelValues[l];
+                Integer code = index.get( value );
+                
+                if( code == null && MaxLevels > 0 && ( value.equals(LevelEncoder.OTHER_LEVEL) || LevelValues.length + added.size() >= MaxLevels - 1 ) )
+                {
+                    value = LevelEncoder.OTHER_LEVEL;
+                    code = index.get( value );
+                }
+                
+                if( code == null )
+                {
+                    code = LevelValues.length + added.size();
+                    index.put( value, code );
+                    added.add( value );
+                }
+                
+                recode[l] = code;
+            }
+            
+            if( !added.isEmpty() )
+            {
+                int width = LevelValues.length + added.size();
+                
+                LevelValues = Arrays.copyOf( LevelValues, width );
+                for(int l = 0; l < added.size(); l++)
+                    LevelValues[width - added.size() + l] = added.get(l);
+                
+                LevelCounts = Arrays.copyOf( LevelCounts, width );
+                SortIndex = Arrays.copyOf( SortIndex, width );
             }
         }
         
-        for(int p = 0; p < LevelValues.length; p++)
+        if( RowCount + count > Codes.Size() )
+            Codes = Codes.Resize( Math.max( Codes.Size() * 2, RowCount + count ) );
+        
+        for(int i = 0; i < count; i++)
         {
-            Stat_avg[p] = Stat_avg[p] / DataAsBools.size();
+            int code = -1;
+            
+            if( levels != null && levels.Codes.Get(i) >= 0 )
+                code = recode[ levels.Codes.Get(i) ];
+            
+            Codes.Set(from + i, code);
+            
+            if( code >= 0 )
+                LevelCounts[code]++;
         }
         
-        // Var
-        Stat_var = new Double[ LevelValues.length ];
-        Arrays.fill(Stat_var, 0d);
+        RowCount += count;
         
-        for(int i = 0; i < DataAsBools.size(); i++)
-        {
-            for(int p = 0; p < LevelValues.length; p++)
-            {
-                Stat_var[p] += Math.pow(Stat_avg[p] - DataAsDouble.get(i)[p], 2d);
-            }
-        }
+        // New rows are not in the sort indexes
+        for(int l = 0; l < SortIndex.length; l++)
+            SortIndex[l] = null;
+    }
+    
+    @Override
+    void SetStorage( Table.StorageMode mode )
+    {
+        Codes = Codes.ToMode( mode, RowCount );
         
-        for(int p = 0; p < LevelValues.length; p++)
-        {
-            Stat_var[p] = Stat_var[p] / DataAsBools.size();
-        }
+        for(int l = 0; l < SortIndex.length; l++)
+            SortIndex[l] = null;
+    }
+    
+    @Override
+    void SetPrecision( Table.Precision precision )
+    {
+        // One-hot values are derived, nothing is stored
+    }
+    
+    @Override
+    void SetMaterialized( boolean materialized )
+    {
+        // One-hot values are derived from the codes
+    }
+    
+    @Override
+    void SetQuantileSketch( boolean enabled )
+    {
+        // Quantiles follow from the level counts
+    }
+    
+    @Override
+    void SetNormalizationRange( double q_low, double q_high )
+    {
+        // One-hot values are already 0 or 1
+    }
+    
+    /**
+     * Set one-hot value, a value of 0.5 or more selects the level for the row, below deselects it.
+     * @param row
+     * @param position level
+     * @param value_new 
+     */
+    @Override
+    public void SetValue_Numeric(int row, int position, double value_new )
+    {
+        int code_old = Codes.Get(row);
+        int code_new;
         
-        // Build sort index
-        SortIndex = new int[LevelValues.length][DataAsDouble.size()];
+        if( value_new >= 0.5d )
+            code_new = position;
+        else
+        if( code_old == position )
+            code_new = -1;
+        else
+            return;
         
-        Integer[][] SortIndexObj = new Integer[LevelValues.length][DataAsDouble.size()];
-        for(int l = 0; l < LevelValues.length; l++)
-            for(int i = 0; i < DataAsDouble.size(); i++)
-                SortIndexObj[l][i] = i;
+        if( code_old == code_new )
+            return;
         
-        for(int l = 0; l < LevelValues.length; l++)
+        if( code_old >= 0 )
         {
-            int level = l;
-            Arrays.sort(SortIndexObj[level], (Integer o1, Integer o2) -> DataAsDouble.get(o1)[level].compareTo( DataAsDouble.get(o2)[level] ));
-            
-            for(int i = 0; i < DataAsDouble.size(); i++)
-                SortIndex[l][i] = SortIndexObj[l][i];
+            LevelCounts[code_old]--;
+            SortIndex[code_old] = null;
         }
         
-        BooleanMedians = new int[LevelValues.length];
-        
-        for(int l = 0; l < LevelValues.length; l++)
+        if( code_new >= 0 )
         {
-            BooleanMedians[l] = 1 + DataAsDouble.size() - ((int) (Stat_avg[l] * (double) DataAsDouble.size()));
+            LevelCounts[code_new]++;
+            SortIndex[code_new] = null;
         }
         
+        Codes.Set(row, code_new);
     }
     
-    private int[] BooleanMedians;
+    @Override
+    public Double GetValue_Normalized(int row, int position)
+    {
+        return GetDouble_Normalized(row, position);
+    }
     
     @Override
-    public void SetValue_Numeric(int row, int position, Double value_new )
+    public double GetDouble_Normalized(int row, int position)
     {
-        Double value_old = DataAsDouble.get(row)[position];
-        
-        if( !value_old.equals(value_new))
-        {   // old != new
-            DataAsDouble.get(row)[position] = value_new;
-            
-            Stat_avg[position] = ((Stat_avg[position] * DataAsBools.size()) + (value_new - value_old) ) / (DataAsBools.size());
-            Stat_var[position] = ((Stat_var[position] * DataAsBools.size()) + Math.pow(Stat_avg[position] - (value_new - value_old), 2d)) / (DataAsBools.size());
-        }
+        return Codes.Get(row) == position ? 1d : 0d;
     }
     
     @Override
-    public Double GetValue_Normalized(int row, int position)
+    BitSet GetMissing()
     {
-        return DataAsDouble.get(row)[position];
+        // Rows without a level are 0 on every position, never missing
+        return new BitSet();
     }
     
     @Override
     Double[] GetValues_Normalized( int position )
     {
-        int row_count = GetRowCount();
-        Double[] arr = new Double[row_count];
-        for(int r = 0; r < row_count; r++)
+        Double[] arr = new Double[RowCount];
+        for(int r = 0; r < RowCount; r++)
         {
-            arr[r] = DataAsDouble.get(r)[position];
+            arr[r] = Codes.Get(r) == position ? 1d : 0d;
+        }
+        return arr;
+    }
+    
+    @Override
+    double[] GetDoubles_Normalized( int position )
+    {
+        double[] arr = new double[RowCount];
+        for(int r = 0; r < RowCount; r++)
+        {
+            if( Codes.Get(r) == position )
+                arr[r] = 1d;
         }
         return arr;
     }
@@ -274,18 +370,22 @@ public class Column_Levels extends Column
     @Override
     public Double GetValue_Numeric(int row, int position)
     {
-        return DataAsDouble.get(row)[position];
+        return GetDouble_Numeric(row, position);
+    }
+    
+    @Override
+    public double GetDouble_Numeric(int row, int position)
+    {
+        return Codes.Get(row) == position ? 1d : 0d;
     }
     
     @Override
     public String GetValue_String(int row)
     {
-        Boolean[] values = DataAsBools.get(row);
-        for(int p = 0; p < LevelValues.length; p++)
-        {
-            if( values[p] )
-                return LevelValues[p];
-        }
+        int code = Codes.Get(row);
+        
+        if( code >= 0 )
+            return LevelValues[code];
         
         return "";
     }
@@ -305,26 +405,92 @@ public class Column_Levels extends Column
     @Override
     public Double GetValue_Avg(int position)
     {
-        return Stat_avg[position];
+        return (double) LevelCounts[position] / RowCount;
     }
     
     @Override
     public Double GetValue_Var(int position)
     {
-        // Does var scale???
-        return Stat_var[position];
+        // Variance of a 0/1 value
+        double avg = (double) LevelCounts[position] / RowCount;
+        return avg * (1d - avg);
     }
     
     @Override 
     public int GetRowIndex_NormalizedSorted(int order, int position)
     {
-        return SortIndex[position][order];
+        if( SortIndex[position] == null )
+            SortIndex[position] = BuildSortIndex(position);
+        
+        return SortIndex[position].Get(order);
+    }
+    
+    /**
+     * Counting sort of a one-hot position: rows without the level (0) then rows with it (1), each in row order.
+     */
+    private IntStorage BuildSortIndex(int position)
+    {
+        IntStorage index = Codes.Allocate(RowCount);
+        
+        int zeros = 0;
+        int ones = RowCount - LevelCounts[position];
+        
+        for(int r = 0; r < RowCount; r++)
+        {
+            if( Codes.Get(r) == position )
+                index.Set(ones++, r);
+            else
+                index.Set(zeros++, r);
+        }
+        
+        return index;
+    }
+    
+    @Override
+    public Double GetValue_Median(int position)
+    {
+        if( RowCount == 0 )
+            return Double.NaN;
+        
+        // Rows without the level sort first
+        return (RowCount - 1) / 2 >= RowCount - LevelCounts[position] ? 1d : 0d;
     }
     
+    @Override
+    public Double GetValue_Quantile(int position, double q)
+    {
+        if( RowCount == 0 )
+            return Double.NaN;
+        
+        // Rows without the level sort first
+        return Math.floor( Math.max( 0d, Math.min( 1d, q ) ) * (RowCount - 1) ) >= RowCount - LevelCounts[position] ? 1d : 0d;
+    }
+    
+    /**
+     * Row of the lower median in the order of the sort index, the row GetValue_Median reads.
+     * @return row, -1 for no rows
+     */
     @Override
     public int GetRowIndex_Median(int position)
     {
-        return BooleanMedians[position];
+        if( RowCount == 0 )
+            return -1;
+        
+        int k = (RowCount - 1) / 2;
+        
+        if( SortIndex[position] != null )
+            return SortIndex[position].Get(k);
+        
+        // Walk the group of the median in row order, rows without the level sort first
+        int zeros = RowCount - LevelCounts[position];
+        boolean one = k >= zeros;
+        int skip = (one ? k - zeros : k);
+        
+        for(int r = 0; r < RowCount; r++)
+            if( (Codes.Get(r) == position) == one && skip-- == 0 )
+                return r;
+        
+        throw new AssertionError();
     }
     
     @Override
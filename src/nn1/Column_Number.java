@@ -25,15 +25,12 @@ package nn1;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 
 /**
  *
  */
-public class Column_Number extends Column
+public class Column_Number extends Column_Numeric
 {
-    String Name;
-    
     public Column_Number()
     {
         this.Name = "Validator";
@@ -52,6 +49,33 @@ public class Column_Number extends Column
         Compile();
     }
     
+    /**
+     * Create column on top of primitive data, the array is used as is.
+     * @param name column name
+     * @param data values, NaN is missing
+     * @param size number of rows used in data
+     */
+    public Column_Number( String name, double[] data, int size )
+    {
+        this( name, DoubleStorage.Wrap(data), size );
+    }
+    
+    /**
+     * Create column on top of stored data, the store is used as is and derived data is kept in the same storage mode.
+     * @param name column name
+     * @param data values, NaN is missing
+     * @param size number of rows used in data
+     */
+    public Column_Number( String name, DoubleStorage data, int size )
+    {
+        this.Name = name;
+        
+        DataAsDouble = data;
+        RowCount = size;
+        
+        Compile();
+    }
+    
     public static final Column Validator = new Column_Number();
     
     /**
@@ -94,8 +118,6 @@ public class Column_Number extends Column
         return true;
     }
     
-    ArrayList<Double> DataAsDouble;
-    
     /**
      *
      * @param data
@@ -103,293 +125,273 @@ public class Column_Number extends Column
     @Override
     public final void AddData( ArrayList<String> data )
     {
-        DataAsDouble = new ArrayList<>();
+        DataAsDouble = DoubleStorage.Wrap( new double[data.size()] );
+        RowCount = data.size();
+        
+        char[] chars = new char[32];
         
         for(int i = 0; i < data.size(); i++)
         {
             String value = data.get(i);
+            int length = value.length();
+            
+            if( length > chars.length )
+                chars = new char[ Math.max(length, chars.length * 2) ];
+            
+            value.getChars(0, length, chars, 0);
             
-            if( 
-                    value.equals("NA") ||
-                    value.equals("NaN") ||
-                    value.equals("null") ||
-                    value.equals("NULL") ||
-                    value.equals("")
-            )
+            if( IsMissing(chars, 0, length) )
             {
-                DataAsDouble.add( Double.NaN );
+                DataAsDouble.Set(i, Double.NaN);
                 continue;
             }
 
-            DataAsDouble.add( Double.parseDouble(value) );
+            DataAsDouble.Set(i, ParseNumber(chars, 0, length));
         }
     }
     
-    public final void SetData( ArrayList<Double> data )
-    {
-        DataAsDouble = new ArrayList<>();
-        
-        for(int i = 0; i < data.size(); i++)
-        {
-            DataAsDouble.add( data.get(i) );
-        }
-        
-        Compile();
-    }
+    //<editor-fold defaultstate="collapsed" desc="Parsing">
     
-    @Override
-    public String GetName()
-    {
-        return Name;
-    }
+    // Powers of ten that are exact as double
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
     
-    @Override
-    public int GetWidth()
-    {
-        return 1;
-    }
+    // Largest mantissa that is exact as double
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
     
-    @Override
-    public int GetRowCount()
-    {
-        return DataAsDouble.size();
-    }
-    
-    @Override
-    public Table.ColumnDataType GetType()
+    /**
+     * Check for the missing value sentinels NA, NaN, null, NULL and empty.
+     */
+    static boolean IsMissing( char[] buffer, int start, int end )
     {
-        return Table.ColumnDataType.Numeric;
+        switch( end - start )
+        {
+            case 0:
+                return true;
+            case 2:
+                return buffer[start] == 'N' && buffer[start + 1] == 'A';
+            case 3:
+                return buffer[start] == 'N' && buffer[start + 1] == 'a' && buffer[start + 2] == 'N';
+            case 4:
+                return 
+                        ( buffer[start] == 'n' && buffer[start + 1] == 'u' && buffer[start + 2] == 'l' && buffer[start + 3] == 'l' ) ||
+                        ( buffer[start] == 'N' && buffer[start + 1] == 'U' && buffer[start + 2] == 'L' && buffer[start + 3] == 'L' );
+            default:
+                return false;
+        }
     }
     
-    ArrayList<Double> DataAsDoubleNorm;
-    boolean needs_recompile = false;
-    
-    Double Stat_min;
-    Double Stat_max;
-    Double Stat_norm_avg;
-    Double Stat_norm_var;
-    int Stat_nonNa_cnt;
-    
-    int[] SortIndex;
-    
-    @Override
-    public final void Compile()
+    /**
+     * Cheap check for a decimal number as accepted by Double.parseDouble,
+     * surrounding blanks, sign, fraction, exponent, float suffix and Infinity are allowed.
+     * @return true if the range can be parsed without error
+     */
+    static boolean IsNumber( char[] buffer, int start, int end )
     {
-        DataAsDoubleNorm = new ArrayList<>();
+        int i = start;
+        
+        // Trim blanks
+        while( i < end && buffer[i] <= ' ' )
+            i++;
+        while( end > i && buffer[end - 1] <= ' ' )
+            end--;
         
-        Stat_min = Double.POSITIVE_INFINITY;
-        Stat_max = Double.NEGATIVE_INFINITY;
+        if( i < end && (buffer[i] == '+' || buffer[i] == '-') )
+            i++;
         
-        for(int i = 0; i < DataAsDouble.size(); i++)
+        if( end - i == 8 && buffer[i] == 'I' && new String(buffer, i, 8).equals("Infinity") )
+            return true;
+        
+        // Mantissa
+        int digits = 0;
+        while( i < end && buffer[i] >= '0' && buffer[i] <= '9' )
         {
-            Double value = DataAsDouble.get(i);
-            
-            if( !value.isNaN() )
-            {
-                // Min, Max
-                if( value > Stat_max )
-                    Stat_max = value;
-
-                if( value < Stat_min )
-                    Stat_min = value;
-            }
+            i++;
+            digits++;
         }
         
-        // Calc average
-        Stat_norm_avg = 0d;
-        Stat_nonNa_cnt = 0;
-        
-        for(int i = 0; i < DataAsDouble.size(); i++)
+        if( i < end && buffer[i] == '.' )
         {
-            Double value = DataAsDouble.get(i);
-            
-            if( !value.isNaN() )
-            {
-                Double value_norm = (value - Stat_min) / (Stat_max - Stat_min);
-
-                // Mean
-                Stat_norm_avg += value_norm;
-                Stat_nonNa_cnt++;
-                
-                // Normalize
-                DataAsDoubleNorm.add(value_norm);
-            }
-            else
+            i++;
+            while( i < end && buffer[i] >= '0' && buffer[i] <= '9' )
             {
-                DataAsDoubleNorm.add(value);
+                i++;
+                digits++;
             }
         }
-        Stat_norm_avg = Stat_norm_avg / Stat_nonNa_cnt;
         
-        // Var
-        Stat_norm_var = 0d;
-        for(int i = 0; i < DataAsDoubleNorm.size(); i++)
+        if( digits == 0 )
+            return false;
+        
+        // Exponent
+        if( i < end && (buffer[i] == 'e' || buffer[i] == 'E') )
         {
-            Double value = DataAsDoubleNorm.get(i);
-            if( !value.isNaN() )
+            i++;
+            
+            if( i < end && (buffer[i] == '+' || buffer[i] == '-') )
+                i++;
+            
+            int exponent_digits = 0;
+            while( i < end && buffer[i] >= '0' && buffer[i] <= '9' )
             {
-                Stat_norm_var += Math.pow(Stat_norm_avg - value, 2d);
+                i++;
+                exponent_digits++;
             }
+            
+            if( exponent_digits == 0 )
+                return false;
         }
-        Stat_norm_var = Stat_norm_var / Stat_nonNa_cnt;
         
-        // Build sort index
-        SortIndex = new int[DataAsDouble.size()];
-        Integer[] SortIndexObj = new Integer[DataAsDouble.size()];
-        for(int i = 0; i < DataAsDouble.size(); i++)
-            SortIndexObj[i] = i;
+        // Suffix
+        if( i < end && (buffer[i] == 'd' || buffer[i] == 'D' || buffer[i] == 'f' || buffer[i] == 'F') )
+            i++;
         
-        Arrays.sort( SortIndexObj, new Comparator<Integer>() {
-            public int compare(Integer o1, Integer o2) {
-                return DataAsDouble.get(o1).compareTo( DataAsDouble.get(o2) );
-            }
-        });
+        return i == end;
+    }
+    
+    /**
+     * Parse decimal number without allocating.
+     * Mantissas up to 2^53 with at most 22 decimals or powers of ten are exact (correctly rounded),
+     * anything else falls back on Double.parseDouble.
+     * @throws NumberFormatException if the range is not a number
+     */
+    static double ParseNumber( char[] buffer, int start, int end )
+    {
+        int i = start;
+        int last = end;
         
-        for(int i = 0; i < DataAsDouble.size(); i++)
-            SortIndex[i] = SortIndexObj[i];
+        // Trim blanks
+        while( i < last && buffer[i] <= ' ' )
+            i++;
+        while( last > i && buffer[last - 1] <= ' ' )
+            last--;
         
-        // Set flags
+        boolean negative = false;
+        if( i < last && (buffer[i] == '+' || buffer[i] == '-') )
+        {
+            negative = buffer[i] == '-';
+            i++;
+        }
         
-        needs_recompile = false;
-    }
+        // Mantissa
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean exact = true;
         
-    @Override
-    public void SetValue_Numeric(int row, int position, Double value_new )
-    {
-        // Min/Max change requires renormalized column
-        if( value_new > Stat_max)
+        while( i < last && buffer[i] >= '0' && buffer[i] <= '9' )
         {
-            Stat_max = value_new;
-            needs_recompile = true;
-            return;
+            if( mantissa < 100000000000000000L )
+                mantissa = mantissa * 10 + (buffer[i] - '0');
+            else
+            {
+                exponent++;
+                exact = false;
+            }
+            i++;
+            digits++;
         }
         
-        if( value_new < Stat_min)
+        if( i < last && buffer[i] == '.' )
         {
-            Stat_min = value_new;
-            needs_recompile = true;
-            return;
+            i++;
+            while( i < last && buffer[i] >= '0' && buffer[i] <= '9' )
+            {
+                if( mantissa < 100000000000000000L )
+                {
+                    mantissa = mantissa * 10 + (buffer[i] - '0');
+                    exponent--;
+                }
+                else
+                    exact = false;
+                i++;
+                digits++;
+            }
         }
         
-        Double value_old = DataAsDouble.get(row);
-        Double value_old_norm = DataAsDoubleNorm.get(row);
-        
-        // old = new
-        if( value_old.equals(value_new))
-            return;
-        
-        
-        if( value_old.isNaN() && !value_new.isNaN() )
-        {   // old = NaN, new = value
-            double value_new_norm = NormalizeValue( value_new );
+        // Exponent
+        if( digits > 0 && i < last && (buffer[i] == 'e' || buffer[i] == 'E') )
+        {
+            i++;
             
-            DataAsDouble.set(row, value_new);
-            DataAsDoubleNorm.set(row, value_new_norm );
+            boolean exponent_negative = false;
+            if( i < last && (buffer[i] == '+' || buffer[i] == '-') )
+            {
+                exponent_negative = buffer[i] == '-';
+                i++;
+            }
             
-            Stat_norm_avg = ((Stat_norm_avg * Stat_nonNa_cnt) + value_new_norm) / (Stat_nonNa_cnt + 1);
-            Stat_norm_var = ((Stat_norm_var * Stat_nonNa_cnt) + Math.pow(Stat_norm_avg - value_new_norm, 2d)) / (Stat_nonNa_cnt + 1);
+            int exponent_value = 0;
+            int exponent_digits = 0;
+            while( i < last && buffer[i] >= '0' && buffer[i] <= '9' )
+            {
+                if( exponent_value < 100000 )
+                    exponent_value = exponent_value * 10 + (buffer[i] - '0');
+                i++;
+                exponent_digits++;
+            }
             
-            Stat_nonNa_cnt++;
-        }
-        else
-        if( !value_old.isNaN() && value_new.isNaN() )
-        {   // old = value, new = NaN
-            DataAsDouble.set(row, Double.NaN );
-            DataAsDoubleNorm.set(row, Double.NaN );
+            if( exponent_digits == 0 )
+                exact = false;
             
-            Stat_norm_avg = ((Stat_norm_avg * Stat_nonNa_cnt) - value_old_norm) / (Stat_nonNa_cnt - 1);
-            Stat_norm_var = ((Stat_norm_var * Stat_nonNa_cnt) - Math.pow(Stat_norm_avg - value_old_norm, 2d)) / (Stat_nonNa_cnt - 1);
-            Stat_nonNa_cnt--;
+            exponent += exponent_negative ? -exponent_value : exponent_value;
         }
-        else
-        {   // old = new
-            double value_new_norm = NormalizeValue( value_new );
-            
-            DataAsDouble.set(row, value_new);
-            DataAsDoubleNorm.set(row, value_new_norm );
+        
+        // Suffix
+        if( i < last && (buffer[i] == 'd' || buffer[i] == 'D' || buffer[i] == 'f' || buffer[i] == 'F') )
+            i++;
+        
+        if( exact && digits > 0 && i == last )
+        {
+            if( mantissa == 0 )
+                return negative ? -0d : 0d;
             
-            Stat_norm_avg = ((Stat_norm_avg * Stat_nonNa_cnt) + (value_new_norm - value_old_norm) ) / (Stat_nonNa_cnt);
-            Stat_norm_var = ((Stat_norm_var * Stat_nonNa_cnt) + Math.pow(Stat_norm_avg - (value_new_norm - value_old_norm), 2d)) / (Stat_nonNa_cnt);
+            if( mantissa <= MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22 )
+            {
+                double value = exponent >= 0 ? mantissa * POW10[exponent] : mantissa / POW10[-exponent];
+                return negative ? -value : value;
+            }
         }
         
+        // Rare: long mantissa, large exponent, Infinity or not a number
+        return Double.parseDouble( new String(buffer, start, end - start) );
     }
     
-    @Override
-    public Double GetValue_Normalized(int row, int position)
+    //</editor-fold>
+    
+    public final void SetData( ArrayList<Double> data )
     {
-        if(needs_recompile)
-            Compile();
+        DataAsDouble = DoubleStorage.Wrap( new double[data.size()] );
+        RowCount = data.size();
         
-        return DataAsDoubleNorm.get(row);
+        for(int i = 0; i < data.size(); i++)
+        {
+            DataAsDouble.Set(i, data.get(i));
+        }
+        
+        Compile();
     }
     
-    @Override
-    Double[] GetValues_Normalized( int position )
+    public final void SetData( double[] data, int size )
     {
-        int row_count = GetRowCount();
-        Double[] arr = new Double[row_count];
-        return DataAsDoubleNorm.toArray(arr);
+        DataAsDouble = DoubleStorage.Wrap( Arrays.copyOf(data, size) );
+        RowCount = size;
+        
+        Compile();
     }
     
     @Override
-    public Double GetValue_Numeric(int row, int position)
+    public Table.ColumnDataType GetType()
     {
-        return DataAsDouble.get(row);
+        return Table.ColumnDataType.Numeric;
     }
     
     @Override
     public String GetValue_String(int row)
     {
-        return DataAsDouble.get(row).toString();
-    }
-    
-    @Override
-    public Double GetValue_Min()
-    {
-        return Stat_min;
-    }
-    
-    @Override
-    public Double GetValue_Max()
-    {
-        return Stat_max;
-    }
-    
-    @Override
-    public Double GetValue_Avg(int position)
-    {
-        return DenormalizeValue(Stat_norm_avg);
-    }
-    
-    @Override
-    public Double GetValue_Var(int position)
-    {
-        // Does var scale???
-        return DenormalizeValue(Stat_norm_var);
-    }
-    
-    @Override 
-    public int GetRowIndex_NormalizedSorted(int order, int position)
-    {
-        return SortIndex[order];
-    }
-    
-    @Override
-    public int GetRowIndex_Median(int position)
-    {
-        return (int) Math.floor( (double) DataAsDouble.size() * 0.5 );
-    }
-    
-    @Override
-    public double DenormalizeValue( double value)
-    {
-        return (value * ( Stat_max - Stat_min ) ) + Stat_min;
-    }
-    
-    @Override
-    public double NormalizeValue( double value)
-    {
-        return (value - Stat_min) / ( Stat_max - Stat_min );
+        return Double.toString( DataAsDouble.Get(row) );
     }
     
 }
@@ -0,0 +1,504 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Jacob Cornelius Mosebo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package nn1;
+
+import java.util.BitSet;
+
+/**
+ * Column of one double per row, NaN is missing, the base of Numeric and Datetime columns.
+ * Holds what both keep alike: statistics, normalization range, quantile sketch, sort index, materialized
+ * normalized values and missing rows, and how each follows changed and appended values.
+ */
+public abstract class Column_Numeric extends Column
+{
+    String Name;
+    
+    // Values, NaN is missing
+    DoubleStorage DataAsDouble;
+    int RowCount;
+    
+    @Override
+    public String GetName()
+    {
+        return Name;
+    }
+    
+    @Override
+    public int GetWidth()
+    {
+        return 1;
+    }
+    
+    @Override
+    public int GetRowCount()
+    {
+        return RowCount;
+    }
+    
+    // Normalized values are computed on access from DataAsDouble and the range,
+    // DataAsDoubleNorm is a copy kept when Materialized is set, null until built
+    DoubleStorage DataAsDoubleNorm;
+    boolean Materialized = false;
+    Table.Precision NormPrecision = Table.Precision.Float64;
+    
+    // Normalization range, widened by SetValue_Numeric and AppendRows and fitted again by Compile.
+    // A robust range is fitted again from the sketch on every change.
+    double Stat_min;
+    double Stat_max;
+    ColumnStatistics Stats;
+    
+    // Robust normalization between two quantiles, values outside are clipped
+    double Norm_q_low = 0d;
+    double Norm_q_high = 1d;
+    boolean Robust = false;
+    
+    // Quantile sketch, kept if enabled or needed by the range. Values replaced since it was built are still counted in it
+    boolean SketchEnabled = false;
+    QuantileSketch Sketch;
+    long Sketch_removed;
+    
+    IntStorage SortIndex;
+    
+    // Rows with a missing value, built on first use
+    BitSet Missing;
+    
+    @Override
+    public final void Compile()
+    {
+        // Min, Max, Mean, Var in one pass
+        Stats = ColumnStatistics.Compute( DataAsDouble, RowCount );
+        
+        Sketch = null;
+        
+        FitRange();
+        
+        // Sort index and missing rows are built on first use
+        SortIndex = null;
+        Missing = null;
+    }
+    
+    /**
+     * Append rows, statistics are merged from the new rows and the range is only widened if they fall outside it.
+     * A robust range is fitted again from the sketch.
+     * @param other column holding the new rows
+     */
+    @Override
+    void AppendRows( Column other )
+    {
+        int from = RowCount;
+        int count = other.GetRowCount();
+        
+        if( RowCount + count > DataAsDouble.Size() )
+            DataAsDouble = DataAsDouble.Resize( Math.max( DataAsDouble.Size() * 2, RowCount + count ) );
+        
+        for(int i = 0; i < count; i++)
+            DataAsDouble.Set(from + i, other.GetDouble_Numeric(i, 0));
+        
+        RowCount += count;
+        
+        // Statistics of the new rows only
+        ColumnStatistics added = ColumnStatistics.Compute( DataAsDouble, from, RowCount );
+        Stats.Merge( added );
+        
+        if( Sketch != null )
+            for(int i = from; i < RowCount; i++)
+                Sketch.Add( DataAsDouble.Get(i) );
+        
+        if( Missing != null )
+            for(int i = from; i < RowCount; i++)
+                if( Double.isNaN( DataAsDouble.Get(i) ) )
+                    Missing.set(i);
+        
+        // New rows are not in the sort index
+        SortIndex = null;
+        
+        if( Robust )
+            RefitRobustRange();
+        else if( added.GetMin() < Stat_min || added.GetMax() > Stat_max )
+        {   // Widen range, normalized values follow without recompile
+            Stat_min = Math.min( Stat_min, added.GetMin() );
+            Stat_max = Math.max( Stat_max, added.GetMax() );
+            
+            DataAsDoubleNorm = null;
+        }
+        
+        if( DataAsDoubleNorm != null )
+        {
+            if( RowCount > DataAsDoubleNorm.Size() )
+                DataAsDoubleNorm = DataAsDoubleNorm.Resize( DataAsDouble.Size() );
+            
+            for(int i = from; i < RowCount; i++)
+                DataAsDoubleNorm.Set(i, NormalizeValue( DataAsDouble.Get(i) ));
+        }
+    }
+    
+    /**
+     * Set normalization range from the statistics, or from the sketch for a robust range.
+     */
+    private void FitRange()
+    {
+        if( Robust )
+        {
+            QuantileSketch sketch = GetSketch();
+            Stat_min = sketch.GetQuantile( Norm_q_low );
+            Stat_max = sketch.GetQuantile( Norm_q_high );
+        }
+        else
+        {
+            Stat_min = Stats.GetMin();
+            Stat_max = Stats.GetMax();
+        }
+        
+        DataAsDoubleNorm = null;
+    }
+    
+    /**
+     * Fit the robust range again from the sketch after values changed, materialized values are dropped if it moved.
+     */
+    private void RefitRobustRange()
+    {
+        QuantileSketch sketch = GetSketch();
+        double low = sketch.GetQuantile( Norm_q_low );
+        double high = sketch.GetQuantile( Norm_q_high );
+        
+        if( low != Stat_min || high != Stat_max )
+        {
+            Stat_min = low;
+            Stat_max = high;
+            
+            DataAsDoubleNorm = null;
+        }
+    }
+    
+    /**
+     * Quantile sketch, rebuilt when more than 1/16 of the values it holds have been replaced.
+     */
+    QuantileSketch GetSketch()
+    {
+        if( Sketch == null || Sketch_removed * 16 > Sketch.GetCount() )
+        {
+            Sketch = QuantileSketch.Compute( DataAsDouble, RowCount );
+            Sketch_removed = 0;
+        }
+        
+        return Sketch;
+    }
+    
+    @Override
+    void SetQuantileSketch( boolean enabled )
+    {
+        SketchEnabled = enabled;
+        
+        if( enabled )
+            GetSketch();
+        else if( !Robust )
+            Sketch = null;
+    }
+    
+    @Override
+    void SetNormalizationRange( double q_low, double q_high )
+    {
+        Norm_q_low = q_low;
+        Norm_q_high = q_high;
+        Robust = q_low > 0d || q_high < 1d;
+        
+        if( !Robust && !SketchEnabled )
+            Sketch = null;
+        
+        FitRange();
+    }
+    
+    /**
+     * Row indices in value order, built on first use and dropped when a value changes.
+     */
+    IntStorage GetSortIndex()
+    {
+        if( SortIndex == null )
+            SortIndex = IntStorage.Wrap( RadixSort.ArgSort( DataAsDouble, RowCount ) ).ToMode( DataAsDouble.GetMode(), RowCount );
+        
+        return SortIndex;
+    }
+        
+    @Override
+    void SetStorage( Table.StorageMode mode )
+    {
+        DataAsDouble = DataAsDouble.ToMode( mode, RowCount );
+        if( DataAsDoubleNorm != null )
+            DataAsDoubleNorm = DataAsDoubleNorm.ToMode( mode, RowCount );
+        if( SortIndex != null )
+            SortIndex = SortIndex.ToMode( mode, RowCount );
+    }
+    
+    @Override
+    void SetPrecision( Table.Precision precision )
+    {
+        NormPrecision = precision;
+        
+        if( DataAsDoubleNorm != null )
+            DataAsDoubleNorm = DataAsDoubleNorm.ToPrecision( precision, RowCount );
+    }
+    
+    @Override
+    void SetMaterialized( boolean materialized )
+    {
+        Materialized = materialized;
+        
+        if( !materialized )
+            DataAsDoubleNorm = null;
+    }
+    
+    /**
+     * Materialized normalized values, rebuilt after the range changed.
+     */
+    private DoubleStorage GetNormalized()
+    {
+        if( DataAsDoubleNorm == null )
+        {
+            DataAsDoubleNorm = DoubleStorage.Create( RowCount, DataAsDouble.GetMode(), NormPrecision );
+            
+            for(int i = 0; i < RowCount; i++)
+                DataAsDoubleNorm.Set(i, NormalizeValue( DataAsDouble.Get(i) ));
+        }
+        
+        return DataAsDoubleNorm;
+    }
+    
+    @Override
+    public void SetValue_Numeric(int row, int position, double value_new )
+    {
+        double value_old = DataAsDouble.Get(row);
+        
+        // old = new
+        if( Double.compare(value_old, value_new) == 0 )
+            return;
+        
+        DataAsDouble.Set(row, value_new);
+        SortIndex = null;
+        
+        if( Missing != null )
+            Missing.set( row, Double.isNaN(value_new) );
+        
+        Stats.Remove( value_old );
+        Stats.Add( value_new );
+        
+        if( Sketch != null )
+        {
+            Sketch.Add( value_new );
+            if( !Double.isNaN(value_old) )
+                Sketch_removed++;
+        }
+        
+        if( Robust )
+            RefitRobustRange();
+        else if( value_new < Stat_min || value_new > Stat_max )
+        {   // Widen range, normalized values follow without recompile
+            Stat_min = Math.min( Stat_min, value_new );
+            Stat_max = Math.max( Stat_max, value_new );
+            
+            DataAsDoubleNorm = null;
+        }
+        
+        if( DataAsDoubleNorm != null )
+        {
+            DataAsDoubleNorm.Set(row, NormalizeValue( value_new ));
+        }
+    }
+    
+    @Override
+    public Double GetValue_Normalized(int row, int position)
+    {
+        return GetDouble_Normalized(row, position);
+    }
+    
+    @Override
+    public double GetDouble_Normalized(int row, int position)
+    {
+        if( Materialized )
+            return GetNormalized().Get(row);
+        
+        return NormalizeValue( DataAsDouble.Get(row) );
+    }
+    
+    @Override
+    BitSet GetMissing()
+    {
+        if( Missing == null )
+        {
+            BitSet missing = new BitSet( RowCount );
+            
+            if( Stats.GetCount() < RowCount )
+                for(int i = 0; i < RowCount; i++)
+                    if( Double.isNaN( DataAsDouble.Get(i) ) )
+                        missing.set(i);
+            
+            Missing = missing;
+        }
+        
+        return Missing;
+    }
+    
+    @Override
+    Double[] GetValues_Normalized( int position )
+    {
+        Double[] arr = new Double[RowCount];
+        for(int r = 0; r < RowCount; r++)
+            arr[r] = GetDouble_Normalized(r, position);
+        return arr;
+    }
+    
+    @Override
+    double[] GetDoubles_Normalized( int position )
+    {
+        if( Materialized )
+            return GetNormalized().ToArray(RowCount);
+        
+        double[] arr = new double[RowCount];
+        for(int r = 0; r < RowCount; r++)
+            arr[r] = NormalizeValue( DataAsDouble.Get(r) );
+        return arr;
+    }
+    
+    @Override
+    public Double GetValue_Numeric(int row, int position)
+    {
+        return DataAsDouble.Get(row);
+    }
+    
+    @Override
+    public double GetDouble_Numeric(int row, int position)
+    {
+        return DataAsDouble.Get(row);
+    }
+    
+    @Override
+    public Double GetValue_Min()
+    {
+        return Stat_min;
+    }
+    
+    @Override
+    public Double GetValue_Max()
+    {
+        return Stat_max;
+    }
+    
+    @Override
+    public Double GetValue_Avg(int position)
+    {
+        return Stats.GetMean();
+    }
+    
+    @Override
+    public Double GetValue_Var(int position)
+    {
+        // Does var scale???
+        return DenormalizeValue( Stats.GetVariance() / ( (Stat_max - Stat_min) * (Stat_max - Stat_min) ) );
+    }
+    
+    @Override 
+    public int GetRowIndex_NormalizedSorted(int order, int position)
+    {
+        return GetSortIndex().Get(order);
+    }
+    
+    /**
+     * Lower median of the non-missing values, read from the sort index if it is built, else found by selection.
+     */
+    @Override
+    public Double GetValue_Median(int position)
+    {
+        long count = Stats.GetCount();
+        
+        if( count == 0 )
+            return Double.NaN;
+        
+        int k = (int) ((count - 1) / 2);
+        
+        // Missing values sort last
+        if( SortIndex != null )
+            return DataAsDouble.Get( SortIndex.Get(k) );
+        
+        return ColumnStatistics.Select( DataAsDouble, RowCount, k );
+    }
+    
+    /**
+     * Quantile of the non-missing values, approximate from the sketch if the column keeps one, else exact.
+     */
+    @Override
+    public Double GetValue_Quantile(int position, double q)
+    {
+        if( SketchEnabled || Robust )
+            return GetSketch().GetQuantile(q);
+        
+        long count = Stats.GetCount();
+        
+        if( count == 0 )
+            return Double.NaN;
+        
+        int k = (int) Math.floor( Math.max( 0d, Math.min( 1d, q ) ) * (count - 1) );
+        
+        if( SortIndex != null )
+            return DataAsDouble.Get( SortIndex.Get(k) );
+        
+        return ColumnStatistics.Select( DataAsDouble, RowCount, k );
+    }
+    
+    /**
+     * Row of the lower median of the non-missing values, from the sort index if it is built, else found by selection.
+     * @return row, -1 if all values are missing
+     */
+    @Override
+    public int GetRowIndex_Median(int position)
+    {
+        long count = Stats.GetCount();
+        
+        if( count == 0 )
+            return -1;
+        
+        int k = (int) ((count - 1) / 2);
+        
+        if( SortIndex != null )
+            return SortIndex.Get(k);
+        
+        return ColumnStatistics.SelectRow( DataAsDouble, RowCount, k );
+    }
+    
+    @Override
+    public double DenormalizeValue( double value)
+    {
+        return (value * ( Stat_max - Stat_min ) ) + Stat_min;
+    }
+    
+    @Override
+    public double NormalizeValue( double value)
+    {
+        double value_norm = (value - Stat_min) / ( Stat_max - Stat_min );
+        
+        if( Robust )
+            return Math.max( 0d, Math.min( 1d, value_norm ) );
+        
+        return value_norm;
+    }
+    
+}
@@ -24,9 +24,14 @@
 package nn1;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.time.*;
-import java.time.format.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  *
@@ -35,118 +40,515 @@ public class CsvReader
 {
     public static final boolean DEV_MODE = false;
     
-    private static List<List<String>> ReadAsStringNestedLists(String fileName, String seperator)
+    private static final int BUFFER_SIZE = 1 << 16;
+    
+    /**
+     * Reader options, defaults are used when none are given.
+     */
+    public static class Settings
     {
-        File file = new File(fileName);
-
-        // this gives you a 2-dimensional array of strings
-        List<List<String>> lines = new ArrayList<>();
-        Scanner inputStream;
-
-        try
+        /** Rows held back per column to decide its type, 0 decides on the first row */
+        public int TypeSampleSize = 1000;
+        
+        /** Maximum number of levels of a Levels column, values beyond go to LevelEncoder.OTHER_LEVEL, 0 for no cap */
+        public int MaxLevels = 0;
+        
+        /** Where column data is kept while reading and in the resulting table */
+        public Table.StorageMode Storage = Table.StorageMode.Heap;
+    }
+    
+    /**
+     * Read delimited file into a table, column types are detected while reading.
+     * @param fileName file to read
+     * @param seperator single seperator character, or a character class of seperators ("[,;]")
+     * @param hasHeader first line holds column names
+     * @return table with one column per field
+     */
+    public static Table ReadAllAsDouble(String fileName, String seperator, boolean hasHeader)
+    {
+        return ReadAllStreaming(fileName, ParseSeperators(seperator), hasHeader);
+    }
+    
+    /**
+     * Stream delimited file directly into typed column builders.
+     * Only the current line (and the read buffer) is held as text.
+     * @param fileName file to read
+     * @param seperators characters that seperate fields
+     * @param hasHeader first line holds column names
+     * @return table with one column per field
+     */
+    public static Table ReadAllStreaming(String fileName, char[] seperators, boolean hasHeader)
+    {
+        return ReadAllStreaming(fileName, seperators, hasHeader, new Settings());
+    }
+    
+    /**
+     * Stream delimited file directly into typed column builders.
+     * Only the current line (and the read buffer) is held as text.
+     * @param fileName file to read
+     * @param seperators characters that seperate fields
+     * @param hasHeader first line holds column names
+     * @param settings reader options
+     * @return table with one column per field
+     */
+    public static Table ReadAllStreaming(String fileName, char[] seperators, boolean hasHeader, Settings settings)
+    {
+        if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Reading file");
+        
+        ColumnBuilder[] builders = null;
+        
+        try( Reader reader = new FileReader( new File(fileName) ) )
         {
-            inputStream = new Scanner(file);
-
-            while(inputStream.hasNext())
+            char[] buffer = new char[BUFFER_SIZE];
+            int length = 0;
+            int lineStart = 0;
+            int scan = 0;
+            boolean eof = false;
+            
+            while(true)
             {
-                //String line = inputStream.next();
-                String line = inputStream.nextLine();
-                String[] values = line.split(seperator);
-                lines.add(Arrays.asList(values));
+                // Find end of line
+                int lineEnd = scan;
+                while( lineEnd < length && buffer[lineEnd] != '\n' )
+                    lineEnd++;
+                
+                if( lineEnd == length && !eof )
+                {   // Line continues past buffer, keep the partial line and refill
+                    length -= lineStart;
+                    System.arraycopy(buffer, lineStart, buffer, 0, length);
+                    scan = length;
+                    lineStart = 0;
+                    
+                    if( length == buffer.length )
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    
+                    int read = reader.read(buffer, length, buffer.length - length);
+                    if( read < 0 )
+                        eof = true;
+                    else
+                        length += read;
+                    
+                    continue;
+                }
+                
+                int end = lineEnd;
+                if( end > lineStart && buffer[end - 1] == '\r' )
+                    end--;
+                
+                if( end > lineStart )
+                {
+                    if( builders == null )
+                    {
+                        builders = CreateBuilders(buffer, lineStart, end, seperators, hasHeader, settings);
+                        
+                        if( !hasHeader )
+                            AddLine(builders, buffer, lineStart, end, seperators);
+                    }
+                    else
+                    {
+                        AddLine(builders, buffer, lineStart, end, seperators);
+                    }
+                }
+                
+                if( lineEnd == length )
+                    break;
+                
+                lineStart = lineEnd + 1;
+                scan = lineStart;
             }
-
-            inputStream.close();
-            
-        }catch (FileNotFoundException e) 
+        }
+        catch (IOException e) 
         {
             e.printStackTrace();
         }
         
-        return lines;
+        // Fill table
+        Table tCSV = new Table( settings.Storage );
+        
+        if( builders == null )
+            return tCSV;
+        
+        if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Generating table structure (" + builders.length + " cols)");
+        
+        for(int c = 0; c < builders.length; c++)
+        {
+            if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Column "+ builders[c].GetName() + " is " + builders[c].GetType() );
+            tCSV.AddColumn( builders[c].Build() );
+            builders[c] = null;
+        }
+        
+        if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Table is ready");
+        
+        return tCSV;
     }
     
-    public static Table ReadAllAsDouble(String fileName, String seperator, boolean hasHeader)
+    /**
+     * Read delimited file by memory mapping it and parsing newline aligned chunks in parallel.
+     * Input is decoded as UTF-8 a line at a time, lines are then split and parsed as when streaming.
+     * @param fileName file to read
+     * @param seperators characters that seperate fields
+     * @param hasHeader first line holds column names
+     * @return table with one column per field
+     */
+    public static Table ReadAllMapped(String fileName, char[] seperators, boolean hasHeader)
     {
-        if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Reading file");
-        
-        // Read all as strings
-        List<List<String>> lines = ReadAsStringNestedLists(fileName, seperator);
-        
-        if(Nn1.DEV_MODE && DEV_MODE) System.out.println("File has " + lines.size() + " rows.");
-        if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Header has " + lines.get(1).size() + " cols.");
-        if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Data has " + lines.get(2).size() + " cols.");
+        return ReadAllMapped(fileName, seperators, hasHeader, new Settings(), ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Read delimited file by memory mapping it and parsing newline aligned chunks in parallel.
+     * Input is decoded as UTF-8 a line at a time, lines are then split and parsed as when streaming.
+     * @param fileName file to read
+     * @param seperators characters that seperate fields
+     * @param hasHeader first line holds column names
+     * @param settings reader options
+     * @param pool pool to parse chunks on
+     * @return table with one column per field
+     */
+    public static Table ReadAllMapped(String fileName, char[] seperators, boolean hasHeader, Settings settings, ForkJoinPool pool)
+    {
+        if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Mapping file");
         
-        // Get column names
-        ArrayList<String> ColumnNames = new ArrayList<>();
+        Table tCSV = new Table( settings.Storage );
+        ColumnBuilder[] builders;
         
-        List<String> header = lines.get(0);
-        for(int i = 0; i < header.size(); i++)
+        try( FileChannel channel = FileChannel.open( new File(fileName).toPath(), StandardOpenOption.READ ) )
         {
-            String value = header.get(i);
+            long size = channel.size();
+            
+            // First line gives column count and names
+            long firstLineEnd = FindLineEnd(channel, 0);
             
-            if( value.startsWith("\"") && value.endsWith("\"") ) // remove quotes
-                value = value.substring( 1, value.length() - 1 );
+            if( firstLineEnd == 0 )
+                return tCSV;
+            
+            byte[] firstLine = new byte[ (int) firstLineEnd ];
+            channel.read( ByteBuffer.wrap(firstLine), 0 );
+            
+            int firstLineLength = firstLine.length;
+            while( firstLineLength > 0 && (firstLine[firstLineLength - 1] == '\n' || firstLine[firstLineLength - 1] == '\r') )
+                firstLineLength--;
+            
+            char[] firstLineChars = new String(firstLine, 0, firstLineLength, StandardCharsets.UTF_8).toCharArray();
+            String[] ColumnNames = CreateColumnNames(firstLineChars, 0, firstLineChars.length, seperators, hasHeader);
+            
+            // Split data into newline aligned chunks
+            long dataStart = hasHeader ? firstLineEnd : 0;
+            long dataSize = size - dataStart;
+            
+            int chunkCount = (int) Math.max( pool.getParallelism() * 4L, (dataSize + MAPPED_CHUNK_SIZE - 1) / MAPPED_CHUNK_SIZE );
+            chunkCount = (int) Math.max( 1, Math.min( chunkCount, dataSize / BUFFER_SIZE ) );
+            
+            ArrayList<Long> bounds = new ArrayList<>();
+            bounds.add( dataStart );
+            for(int i = 1; i < chunkCount; i++)
+            {
+                long bound = FindLineEnd(channel, dataStart + (dataSize / chunkCount) * i - 1);
+                
+                if( bound > bounds.get(bounds.size() - 1) && bound < size )
+                    bounds.add( bound );
+            }
+            bounds.add( size );
             
-            ColumnNames.add(value);
+            if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Parsing " + (bounds.size() - 1) + " chunks");
+            
+            // Parse chunks in parallel
+            ArrayList<ChunkTask> tasks = new ArrayList<>();
+            for(int i = 0; i < bounds.size() - 1; i++)
+                tasks.add( new ChunkTask( channel, bounds.get(i), bounds.get(i + 1), ColumnNames, seperators, settings ) );
+            
+            for(ChunkTask task : tasks)
+                pool.execute(task);
+            
+            // Stitch chunks together in row order
+            builders = tasks.get(0).join();
+            
+            for(int i = 1; i < tasks.size(); i++)
+            {
+                ColumnBuilder[] chunk = tasks.get(i).join();
+                
+                for(int c = 0; c < builders.length; c++)
+                    builders[c].Append( chunk[c] );
+                
+                tasks.set(i, null);
+            }
+        }
+        catch (IOException e) 
+        {
+            e.printStackTrace();
+            return tCSV;
         }
         
-        // Create empty structure for column storing
-        ArrayList<ArrayList<String>> columnData = new ArrayList<>();
+        // Fill table
+        if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Generating table structure (" + builders.length + " cols)");
         
-        for(int c = 0; c < ColumnNames.size(); c++)
+        for(int c = 0; c < builders.length; c++)
         {
-            columnData.add( new ArrayList<String>() );
+            if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Column "+ builders[c].GetName() + " is " + builders[c].GetType() );
+            tCSV.AddColumn( builders[c].Build() );
+            builders[c] = null;
         }
         
-        // Convert from string rows into column arrays
-        if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Parsing data");
+        if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Table is ready");
+        
+        return tCSV;
+    }
+    
+    private static final long MAPPED_CHUNK_SIZE = 1L << 28;
+    
+    /**
+     * Parse one newline aligned region of a mapped file into its own column builders.
+     */
+    @SuppressWarnings("serial")
+    private static class ChunkTask extends RecursiveTask<ColumnBuilder[]>
+    {
+        final FileChannel Channel;
+        final long Start;
+        final long End;
+        final String[] ColumnNames;
+        final char[] Seperators;
+        final Settings Settings;
+        
+        // Current line decoded
+        char[] Line = new char[256];
+        
+        ChunkTask(FileChannel channel, long start, long end, String[] columnNames, char[] seperators, Settings settings)
+        {
+            this.Channel = channel;
+            this.Start = start;
+            this.End = end;
+            this.ColumnNames = columnNames;
+            this.Seperators = seperators;
+            this.Settings = settings;
+        }
         
-        for(int l = 0; l < lines.size(); l++)
+        @Override
+        protected ColumnBuilder[] compute()
         {
-            List<String> line = lines.get(l);
+            ColumnBuilder[] builders = new ColumnBuilder[ColumnNames.length];
+            for(int c = 0; c < builders.length; c++)
+                builders[c] = new ColumnBuilder( ColumnNames[c], Settings );
             
-            if( l == 0) // Skip header
-                continue;
+            MappedByteBuffer mapped;
+            try
+            {
+                mapped = Channel.map( FileChannel.MapMode.READ_ONLY, Start, End - Start );
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
             
-            for(int c = 0; c < ColumnNames.size(); c++)
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length = 0;
+            int lineStart = 0;
+            int scan = 0;
+            
+            while(true)
             {
-                String value = line.get(c);
+                // Find end of line
+                int lineEnd = scan;
+                while( lineEnd < length && buffer[lineEnd] != '\n' )
+                    lineEnd++;
+                
+                if( lineEnd == length && mapped.hasRemaining() )
+                {   // Line continues past buffer, keep the partial line and refill
+                    length -= lineStart;
+                    System.arraycopy(buffer, lineStart, buffer, 0, length);
+                    scan = length;
+                    lineStart = 0;
+                    
+                    if( length == buffer.length )
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    
+                    int read = Math.min( buffer.length - length, mapped.remaining() );
+                    mapped.get(buffer, length, read);
+                    length += read;
+                    
+                    continue;
+                }
+                
+                int end = lineEnd;
+                if( end > lineStart && buffer[end - 1] == '\r' )
+                    end--;
                 
-                if( value.startsWith("\"") && value.endsWith("\"") )
-                    value = value.substring( 1, value.length() - 1 );
+                if( end > lineStart )
+                    AddLine(builders, Line, 0, Decode(buffer, lineStart, end), Seperators);
                 
-                columnData.get(c).add(value);
+                if( lineEnd == length )
+                    break;
+                
+                lineStart = lineEnd + 1;
+                scan = lineStart;
             }
+            
+            return builders;
         }
         
-        // Fill table
-        if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Generating table structure (" + ColumnNames.size() + " cols)");
-        
-        Table tCSV = new Table();
-        
-        for(int c = 0; c < ColumnNames.size(); c++)
+        /**
+         * Decode a line of UTF-8 into Line, ASCII a byte at a time.
+         * @return number of chars
+         */
+        private int Decode(byte[] buffer, int start, int end)
         {
-            if( Column_Number.Validator.ValidateType( columnData.get(c) ) )
+            if( end - start > Line.length )
+                Line = new char[ Math.max( end - start, Line.length * 2 ) ];
+            
+            for(int i = start; i < end; i++)
             {
-                if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Column "+ ColumnNames.get(c) + " is Numeric ");
-                tCSV.AddColumn( ColumnNames.get(c), Table.ColumnDataType.Numeric, columnData.get(c) );
+                if( buffer[i] < 0 )
+                {   // Not ASCII, decode the rest of the line at once
+                    String rest = new String(buffer, i, end - i, StandardCharsets.UTF_8);
+                    rest.getChars(0, rest.length(), Line, i - start);
+                    return i - start + rest.length();
+                }
+                
+                Line[i - start] = (char) buffer[i];
             }
-            else if( Column_DateTime.Validator.ValidateType( columnData.get(c) ) )
+            
+            return end - start;
+        }
+    }
+    
+    /**
+     * Find position after the end of the line holding the given position.
+     * @return position after the next newline, or the file size
+     */
+    private static long FindLineEnd(FileChannel channel, long position) throws IOException
+    {
+        long size = channel.size();
+        ByteBuffer block = ByteBuffer.allocate(BUFFER_SIZE);
+        
+        while( position < size )
+        {
+            block.clear();
+            int read = channel.read(block, position);
+            
+            for(int i = 0; i < read; i++)
+                if( block.get(i) == '\n' )
+                    return position + i + 1;
+            
+            position += read;
+        }
+        
+        return size;
+    }
+    
+    /**
+     * Create column builders from the first line, named by it if it is a header.
+     */
+    private static ColumnBuilder[] CreateBuilders(char[] buffer, int start, int end, char[] seperators, boolean hasHeader, Settings settings)
+    {
+        String[] ColumnNames = CreateColumnNames(buffer, start, end, seperators, hasHeader);
+        
+        ColumnBuilder[] builders = new ColumnBuilder[ColumnNames.length];
+        for(int c = 0; c < builders.length; c++)
+            builders[c] = new ColumnBuilder( ColumnNames[c], settings );
+        
+        if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Header has " + builders.length + " cols.");
+        
+        return builders;
+    }
+    
+    /**
+     * Column names from the first line, V1, V2 .. if it is not a header.
+     */
+    private static String[] CreateColumnNames(char[] buffer, int start, int end, char[] seperators, boolean hasHeader)
+    {
+        ArrayList<String> ColumnNames = new ArrayList<>();
+        
+        int cellStart = start;
+        for(int i = start; i <= end; i++)
+        {
+            if( i < end && !IsSeperator(buffer[i], seperators) )
+                continue;
+            
+            if( hasHeader )
             {
-                if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Column "+ ColumnNames.get(c) + " is DateTime ");
-                tCSV.AddColumn( ColumnNames.get(c), Table.ColumnDataType.Datetime, columnData.get(c) );
+                int cellEnd = i;
+                
+                if( cellEnd - cellStart >= 2 && buffer[cellStart] == '"' && buffer[cellEnd - 1] == '"' ) // remove quotes
+                {
+                    cellStart++;
+                    cellEnd--;
+                }
+                
+                ColumnNames.add( new String(buffer, cellStart, cellEnd - cellStart) );
             }
             else
             {
-                if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Column "+ ColumnNames.get(c) + " is Levels ");
-                tCSV.AddColumn( ColumnNames.get(c), Table.ColumnDataType.Levels, columnData.get(c) );
+                ColumnNames.add( "V" + (ColumnNames.size() + 1) );
             }
+            
+            cellStart = i + 1;
         }
         
-        if(Nn1.DEV_MODE && DEV_MODE) System.out.println("Table is ready");
+        return ColumnNames.toArray( new String[ColumnNames.size()] );
+    }
+    
+    /**
+     * Split line into cells and pass them on to the column builders.
+     * Missing trailing cells are added as empty, extra cells are ignored.
+     */
+    private static void AddLine(ColumnBuilder[] builders, char[] buffer, int start, int end, char[] seperators)
+    {
+        int c = 0;
+        int cellStart = start;
         
-        return tCSV;
+        for(int i = start; i <= end && c < builders.length; i++)
+        {
+            if( i < end && !IsSeperator(buffer[i], seperators) )
+                continue;
+            
+            int cellEnd = i;
+            
+            if( cellEnd - cellStart >= 2 && buffer[cellStart] == '"' && buffer[cellEnd - 1] == '"' ) // remove quotes
+                builders[c].Add(buffer, cellStart + 1, cellEnd - 1);
+            else
+                builders[c].Add(buffer, cellStart, cellEnd);
+            
+            c++;
+            cellStart = i + 1;
+        }
+        
+        for(; c < builders.length; c++)
+            builders[c].Add("");
+    }
+    
+    private static boolean IsSeperator(char value, char[] seperators)
+    {
+        for(int i = 0; i < seperators.length; i++)
+            if( value == seperators[i] )
+                return true;
+        
+        return false;
+    }
+    
+    /**
+     * Convert seperator pattern into seperator characters.
+     * @param seperator single character, or a character class ("[,;]")
+     * @return seperator characters
+     */
+    static char[] ParseSeperators(String seperator)
+    {
+        if( seperator.length() == 1 )
+            return seperator.toCharArray();
+        
+        if( seperator.length() > 2 && seperator.startsWith("[") && seperator.endsWith("]") )
+        {
+            char[] seperators = seperator.substring(1, seperator.length() - 1).toCharArray();
+            
+            for(char value : seperators)
+                if( value == '\\' || value == '^' || value == '-' )
+                    throw new IllegalArgumentException("Unsupported seperator pattern: " + seperator);
+            
+            return seperators;
+        }
+        
+        if( seperator.equals("\\t") )
+            return new char[] { '\t' };
         
+        throw new IllegalArgumentException("Unsupported seperator pattern: " + seperator);
     }
     
     public static void WriteLines(String fileName, String[] lines)
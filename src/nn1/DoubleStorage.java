@@ -0,0 +1,461 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Jacob Cornelius Mosebo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package nn1;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Fixed size double store behind the columns, either a Java array or off-heap buffers.
+ * Off-heap data is split in segments of 2^27 values so a store is not bound by the 2GB buffer limit.
+ * A Float32 store keeps values as float and widens them on read.
+ */
+public abstract class DoubleStorage
+{
+    static final int SEGMENT_SHIFT = 27;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    
+    public abstract double Get( int index );
+    public abstract void Set( int index, double value );
+    public abstract int Size();
+    public abstract Table.StorageMode GetMode();
+    
+    public Table.Precision GetPrecision()
+    {
+        return Table.Precision.Float64;
+    }
+    
+    /**
+     * @return backing array of a heap store, null for off-heap
+     */
+    public double[] GetArray()
+    {
+        return null;
+    }
+    
+    /**
+     * Create store of same mode and precision.
+     * @param size number of values
+     * @return new store, values are 0
+     */
+    public DoubleStorage Allocate( int size )
+    {
+        return Create( size, GetMode(), GetPrecision() );
+    }
+    
+    /**
+     * Copy into a store of same mode and new size.
+     * @param size number of values
+     * @return new store holding the first min(size, Size()) values
+     */
+    public DoubleStorage Resize( int size )
+    {
+        DoubleStorage resized = Allocate(size);
+        resized.CopyFrom( this, 0, 0, Math.min( size, Size() ) );
+        return resized;
+    }
+    
+    /**
+     * Move into another storage mode.
+     * @param mode target mode
+     * @param size number of leading values to keep
+     * @return this store if it is in mode already, otherwise a copy
+     */
+    public DoubleStorage ToMode( Table.StorageMode mode, int size )
+    {
+        if( GetMode() == mode )
+            return this;
+        
+        DoubleStorage moved = Create( size, mode, GetPrecision() );
+        moved.CopyFrom( this, 0, 0, size );
+        return moved;
+    }
+    
+    /**
+     * Move into another precision, same storage mode.
+     * @param precision target precision
+     * @param size number of leading values to keep
+     * @return this store if it is in precision already, otherwise a copy
+     */
+    public DoubleStorage ToPrecision( Table.Precision precision, int size )
+    {
+        if( GetPrecision() == precision )
+            return this;
+        
+        DoubleStorage converted = Create( size, GetMode(), precision );
+        converted.CopyFrom( this, 0, 0, size );
+        return converted;
+    }
+    
+    /**
+     * Copy values from another store.
+     * @param source store to copy from
+     * @param from first index in source
+     * @param to first index in this store
+     * @param length number of values
+     */
+    public void CopyFrom( DoubleStorage source, int from, int to, int length )
+    {
+        for(int i = 0; i < length; i++)
+            Set( to + i, source.Get(from + i) );
+    }
+    
+    /**
+     * @param size number of leading values to copy
+     * @return values as heap array
+     */
+    public double[] ToArray( int size )
+    {
+        double[] values = new double[size];
+        for(int i = 0; i < size; i++)
+            values[i] = Get(i);
+        return values;
+    }
+    
+    public static DoubleStorage Create( int size, Table.StorageMode mode )
+    {
+        return Create( size, mode, Table.Precision.Float64 );
+    }
+    
+    public static DoubleStorage Create( int size, Table.StorageMode mode, Table.Precision precision )
+    {
+        if( precision == Table.Precision.Float32 )
+        {
+            switch( mode )
+            {
+                case Heap:
+                    return new HeapFloat( new float[size] );
+                case Direct:
+                    return new FloatBuffers( AllocateDirect( size, 4 ), size, mode );
+                case Mapped:
+                    return new FloatBuffers( AllocateMapped( size, 4 ), size, mode );
+                default:
+                    throw new AssertionError();
+            }
+        }
+        
+        switch( mode )
+        {
+            case Heap:
+                return new Heap( new double[size] );
+            case Direct:
+                return new Buffers( AllocateDirect( size, 8 ), size, mode );
+            case Mapped:
+                return new Buffers( AllocateMapped( size, 8 ), size, mode );
+            default:
+                throw new AssertionError();
+        }
+    }
+    
+    /**
+     * Store on top of an array, the array is used as is.
+     */
+    public static DoubleStorage Wrap( double[] data )
+    {
+        return new Heap( data );
+    }
+    
+    /**
+     * Store on top of a file region, 8 byte little-endian values.
+     * @param channel open file
+     * @param offset region start
+     * @param size number of values
+     * @param mapMode READ_ONLY, READ_WRITE or PRIVATE (changes stay in memory)
+     * @return mapped store
+     * @throws IOException 
+     */
+    public static DoubleStorage Map( FileChannel channel, long offset, int size, FileChannel.MapMode mapMode ) throws IOException
+    {
+        return new Buffers( MapSegments( channel, offset, size, 8, mapMode ), size, Table.StorageMode.Mapped );
+    }
+    
+    //<editor-fold defaultstate="collapsed" desc="Segments">
+    
+    static ByteBuffer[] AllocateDirect( int size, int valueBytes )
+    {
+        ByteBuffer[] segments = new ByteBuffer[ SegmentCount(size) ];
+        
+        for(int s = 0; s < segments.length; s++)
+            segments[s] = ByteBuffer.allocateDirect( SegmentLength(size, s) * valueBytes ).order(ByteOrder.LITTLE_ENDIAN);
+        
+        return segments;
+    }
+    
+    /**
+     * Map a temporary file, pages are written back by the OS instead of held in memory.
+     */
+    static ByteBuffer[] AllocateMapped( int size, int valueBytes )
+    {
+        try
+        {
+            File file = File.createTempFile("nn1", ".col");
+            ByteBuffer[] segments;
+            
+            try( RandomAccessFile raf = new RandomAccessFile(file, "rw") )
+            {
+                raf.setLength( (long) size * valueBytes );
+                segments = MapSegments( raf.getChannel(), 0, size, valueBytes, FileChannel.MapMode.READ_WRITE );
+            }
+            
+            // The mapping outlives the file name where the OS allows it, otherwise remove on exit
+            if( !file.delete() )
+                file.deleteOnExit();
+            
+            return segments;
+        }
+        catch( IOException ex )
+        {
+            throw new UncheckedIOException(ex);
+        }
+    }
+    
+    static ByteBuffer[] MapSegments( FileChannel channel, long offset, int size, int valueBytes, FileChannel.MapMode mapMode ) throws IOException
+    {
+        ByteBuffer[] segments = new ByteBuffer[ SegmentCount(size) ];
+        
+        for(int s = 0; s < segments.length; s++)
+        {
+            long start = offset + ( (long) s << SEGMENT_SHIFT ) * valueBytes;
+            segments[s] = channel.map( mapMode, start, (long) SegmentLength(size, s) * valueBytes ).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        
+        return segments;
+    }
+    
+    static int SegmentCount( int size )
+    {
+        return Math.max( 1, (int) ( ( (long) size + SEGMENT_SIZE - 1 ) >>> SEGMENT_SHIFT ) );
+    }
+    
+    static int SegmentLength( int size, int segment )
+    {
+        return Math.min( SEGMENT_SIZE, size - ( segment << SEGMENT_SHIFT ) );
+    }
+    
+    //</editor-fold>
+    
+    static final class Heap extends DoubleStorage
+    {
+        final double[] Data;
+        
+        Heap( double[] data )
+        {
+            this.Data = data;
+        }
+        
+        @Override
+        public double Get( int index )
+        {
+            return Data[index];
+        }
+        
+        @Override
+        public void Set( int index, double value )
+        {
+            Data[index] = value;
+        }
+        
+        @Override
+        public int Size()
+        {
+            return Data.length;
+        }
+        
+        @Override
+        public Table.StorageMode GetMode()
+        {
+            return Table.StorageMode.Heap;
+        }
+        
+        @Override
+        public double[] GetArray()
+        {
+            return Data;
+        }
+        
+        @Override
+        public DoubleStorage Resize( int size )
+        {
+            return new Heap( Arrays.copyOf(Data, size) );
+        }
+        
+        @Override
+        public void CopyFrom( DoubleStorage source, int from, int to, int length )
+        {
+            if( source.GetArray() != null )
+                System.arraycopy( source.GetArray(), from, Data, to, length );
+            else
+                super.CopyFrom( source, from, to, length );
+        }
+        
+        @Override
+        public double[] ToArray( int size )
+        {
+            return Arrays.copyOf(Data, size);
+        }
+    }
+    
+    static final class Buffers extends DoubleStorage
+    {
+        final DoubleBuffer[] Segments;
+        final int Size;
+        final Table.StorageMode Mode;
+        
+        Buffers( ByteBuffer[] segments, int size, Table.StorageMode mode )
+        {
+            this.Segments = new DoubleBuffer[segments.length];
+            for(int s = 0; s < segments.length; s++)
+                this.Segments[s] = segments[s].asDoubleBuffer();
+            
+            this.Size = size;
+            this.Mode = mode;
+        }
+        
+        @Override
+        public double Get( int index )
+        {
+            return Segments[ index >>> SEGMENT_SHIFT ].get( index & SEGMENT_MASK );
+        }
+        
+        @Override
+        public void Set( int index, double value )
+        {
+            Segments[ index >>> SEGMENT_SHIFT ].put( index & SEGMENT_MASK, value );
+        }
+        
+        @Override
+        public int Size()
+        {
+            return Size;
+        }
+        
+        @Override
+        public Table.StorageMode GetMode()
+        {
+            return Mode;
+        }
+    }
+    
+    static final class HeapFloat extends DoubleStorage
+    {
+        final float[] Data;
+        
+        HeapFloat( float[] data )
+        {
+            this.Data = data;
+        }
+        
+        @Override
+        public double Get( int index )
+        {
+            return Data[index];
+        }
+        
+        @Override
+        public void Set( int index, double value )
+        {
+            Data[index] = (float) value;
+        }
+        
+        @Override
+        public int Size()
+        {
+            return Data.length;
+        }
+        
+        @Override
+        public Table.StorageMode GetMode()
+        {
+            return Table.StorageMode.Heap;
+        }
+        
+        @Override
+        public Table.Precision GetPrecision()
+        {
+            return Table.Precision.Float32;
+        }
+        
+        @Override
+        public DoubleStorage Resize( int size )
+        {
+            return new HeapFloat( Arrays.copyOf(Data, size) );
+        }
+    }
+    
+    static final class FloatBuffers extends DoubleStorage
+    {
+        final FloatBuffer[] Segments;
+        final int Size;
+        final Table.StorageMode Mode;
+        
+        FloatBuffers( ByteBuffer[] segments, int size, Table.StorageMode mode )
+        {
+            this.Segments = new FloatBuffer[segments.length];
+            for(int s = 0; s < segments.length; s++)
+                this.Segments[s] = segments[s].asFloatBuffer();
+            
+            this.Size = size;
+            this.Mode = mode;
+        }
+        
+        @Override
+        public double Get( int index )
+        {
+            return Segments[ index >>> SEGMENT_SHIFT ].get( index & SEGMENT_MASK );
+        }
+        
+        @Override
+        public void Set( int index, double value )
+        {
+            Segments[ index >>> SEGMENT_SHIFT ].put( index & SEGMENT_MASK, (float) value );
+        }
+        
+        @Override
+        public int Size()
+        {
+            return Size;
+        }
+        
+        @Override
+        public Table.StorageMode GetMode()
+        {
+            return Mode;
+        }
+        
+        @Override
+        public Table.Precision GetPrecision()
+        {
+            return Table.Precision.Float32;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Jacob Cornelius Mosebo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package nn1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Mergeable summary of the raw rows of a table from which X'X of the normalized data follows for any column ranges.
+ * Normalization is affine per position, n = a x + b, and a missing value is 0 after it, so X'X is built from
+ * sums of x_i x_j, sums of x_i and counts over the rows where both positions are present.
+ * Complete rows only add to the products, a sum vector and a count, incomplete rows to pairwise sums and counts.
+ * Values are shifted per position by a fixed reference, near the data, so large offsets do not eat the mantissa.
+ * Rows can be added, removed and sketches with the same shift merged, so appended rows cost only their own pass.
+ */
+public class GramSketch
+{
+    final int Width;
+    final double[] Shift;
+    
+    // Complete rows: count and sums of u = x - shift
+    long Complete_count = 0;
+    final double[] Complete_sum;
+    
+    // All rows: sums of u_i u_j where both are present, upper triangle i <= j
+    final double[] Product_sum;
+    
+    // Incomplete rows: count, sums of u_i where u_j is present too [i * width + j], count of rows where both are present (upper)
+    long Incomplete_count = 0;
+    final double[] Partial_sum;
+    final double[] Partial_count;
+    
+    // Row buffers reused by every update: shifted values, and raw values for callers reading a row to add or remove
+    private final double[] Shifted;
+    final double[] Row_buffer;
+    
+    /**
+     * @param shift reference value per position, subtracted from every value
+     */
+    public GramSketch( double[] shift )
+    {
+        Width = shift.length;
+        Shift = Arrays.copyOf( shift, Width );
+        
+        Complete_sum = new double[Width];
+        Product_sum = new double[ Width * Width ];
+        Partial_sum = new double[ Width * Width ];
+        Partial_count = new double[ Width * Width ];
+        
+        Shifted = new double[Width];
+        Row_buffer = new double[Width];
+    }
+    
+    public int GetWidth()
+    {
+        return Width;
+    }
+    
+    public long GetRowCount()
+    {
+        return Complete_count + Incomplete_count;
+    }
+    
+    /**
+     * @param row raw value per position, NaN for missing
+     */
+    public void Add( double[] row )
+    {
+        Update( row, 1d );
+    }
+    
+    /**
+     * Remove a row added before, as when a cell of it is changed.
+     * @param row raw value per position, NaN for missing
+     */
+    public void Remove( double[] row )
+    {
+        Update( row, -1d );
+    }
+    
+    private void Update( double[] row, double sign )
+    {
+        double[] u = Shifted;
+        boolean complete = true;
+        
+        for(int i = 0; i < Width; i++)
+        {
+            u[i] = row[i] - Shift[i];
+            complete &= !Double.isNaN( u[i] );
+        }
+        
+        if( complete )
+        {
+            Complete_count += (long) sign;
+            
+            for(int i = 0; i < Width; i++)
+            {
+                double u_i = sign * u[i];
+                int base = i * Width;
+                
+                Complete_sum[i] += u_i;
+                
+                for(int j = i; j < Width; j++)
+                    Product_sum[base + j] += u_i * u[j];
+            }
+            
+            return;
+        }
+        
+        Incomplete_count += (long) sign;
+        
+        for(int i = 0; i < Width; i++)
+        {
+            if( Double.isNaN( u[i] ) )
+                continue;
+            
+            double u_i = sign * u[i];
+            int base = i * Width;
+            
+            for(int j = 0; j < Width; j++)
+            {
+                if( Double.isNaN( u[j] ) )
+                    continue;
+                
+                Partial_sum[base + j] += u_i;
+                
+                if( j >= i )
+                {
+                    Product_sum[base + j] += u_i * u[j];
+                    Partial_count[base + j] += sign;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Add the rows of another sketch.
+     * @param other sketch with the same width and shift
+     * @throws IllegalArgumentException if the shifts differ
+     */
+    public void Merge( GramSketch other )
+    {
+        if( !Arrays.equals( Shift, other.Shift ) )
+            throw new IllegalArgumentException("Sketches with different shifts cannot be merged");
+        
+        Complete_count += other.Complete_count;
+        Incomplete_count += other.Incomplete_count;
+        
+        for(int i = 0; i < Width; i++)
+            Complete_sum[i] += other.Complete_sum[i];
+        
+        for(int i = 0; i < Width * Width; i++)
+        {
+            Product_sum[i] += other.Product_sum[i];
+            Partial_sum[i] += other.Partial_sum[i];
+            Partial_count[i] += other.Partial_count[i];
+        }
+    }
+    
+    /**
+     * X'X of the normalized rows, n = scale * x + offset per position and 0 where x is missing.
+     * @param scale per position
+     * @param offset per position
+     * @return symmetric matrix [width * width], cell (i, j) at i * width + j
+     */
+    public double[] GetGramMatrix( double[] scale, double[] offset )
+    {
+        // n = a u + c with c = a shift + b
+        double[] c = new double[Width];
+        for(int i = 0; i < Width; i++)
+            c[i] = scale[i] * Shift[i] + offset[i];
+        
+        double[] gram = new double[ Width * Width ];
+        
+        for(int i = 0; i < Width; i++)
+        {
+            int base_i = i * Width;
+            
+            for(int j = i; j < Width; j++)
+            {
+                int base_j = j * Width;
+                
+                double sum_i = Complete_sum[i] + Partial_sum[base_i + j];
+                double sum_j = Complete_sum[j] + Partial_sum[base_j + i];
+                double count = Complete_count + Partial_count[base_i + j];
+                
+                gram[base_i + j] = scale[i] * scale[j] * Product_sum[base_i + j]
+                        + scale[i] * c[j] * sum_i
+                        + c[i] * scale[j] * sum_j
+                        + c[i] * c[j] * count;
+            }
+        }
+        
+        PrincipalComponents.Mirror( gram, Width );
+        
+        return gram;
+    }
+    
+    /**
+     * Sketch of rows from .. to - 1 of a table, row slices in parallel on the pool, merged in row order.
+     * @param table
+     * @param from first row
+     * @param to row after the last
+     * @param shift reference value per position
+     * @param pool
+     */
+    public static GramSketch Compute( Table table, int from, int to, double[] shift, ForkJoinPool pool )
+    {
+        int width = shift.length;
+        int rows = to - from;
+        
+        int slices = PrincipalComponents.Slices( rows, 3L * width * (width + 1) / 2 + width, pool );
+        int slice_rows = (rows + slices - 1) / slices;
+        
+        if( slices <= 1 )
+            return Compute( table, from, to, shift );
+        
+        ArrayList<SliceTask> tasks = new ArrayList<>();
+        for(int start = from; start < to; start += slice_rows)
+            tasks.add( new SliceTask( table, start, Math.min( start + slice_rows, to ), shift ) );
+        
+        for(SliceTask task : tasks)
+            pool.execute(task);
+        
+        GramSketch sketch = tasks.get(0).join();
+        for(int t = 1; t < tasks.size(); t++)
+            sketch.Merge( tasks.get(t).join() );
+        
+        return sketch;
+    }
+    
+    // Rows from .. to - 1 of a table in the calling thread
+    static GramSketch Compute( Table table, int from, int to, double[] shift )
+    {
+        GramSketch sketch = new GramSketch( shift );
+        double[] row = new double[ shift.length ];
+        
+        for(int r = from; r < to; r++)
+        {
+            table.GetRowValues( r, row );
+            sketch.Add( row );
+        }
+        
+        return sketch;
+    }
+    
+    @SuppressWarnings("serial")
+    private static class SliceTask extends RecursiveTask<GramSketch>
+    {
+        final Table Source;
+        final int From;
+        final int To;
+        final double[] Shift;
+        
+        SliceTask( Table source, int from, int to, double[] shift )
+        {
+            this.Source = source;
+            this.From = from;
+            this.To = to;
+            this.Shift = shift;
+        }
+        
+        @Override
+        protected GramSketch compute()
+        {
+            return Compute( Source, From, To, Shift );
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Jacob Cornelius Mosebo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package nn1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Fixed size int store behind the columns (level codes, sort indices), same layout as DoubleStorage.
+ */
+public abstract class IntStorage
+{
+    public abstract int Get( int index );
+    public abstract void Set( int index, int value );
+    public abstract int Size();
+    public abstract Table.StorageMode GetMode();
+    
+    /**
+     * @return backing array of a heap store, null for off-heap
+     */
+    public int[] GetArray()
+    {
+        return null;
+    }
+    
+    /**
+     * Create store of same mode.
+     * @param size number of values
+     * @return new store, values are 0
+     */
+    public IntStorage Allocate( int size )
+    {
+        return Create( size, GetMode() );
+    }
+    
+    /**
+     * Copy into a store of same mode and new size.
+     * @param size number of values
+     * @return new store holding the first min(size, Size()) values
+     */
+    public IntStorage Resize( int size )
+    {
+        IntStorage resized = Allocate(size);
+        resized.CopyFrom( this, 0, 0, Math.min( size, Size() ) );
+        return resized;
+    }
+    
+    /**
+     * Move into another storage mode.
+     * @param mode target mode
+     * @param size number of leading values to keep
+     * @return this store if it is in mode already, otherwise a copy
+     */
+    public IntStorage ToMode( Table.StorageMode mode, int size )
+    {
+        if( GetMode() == mode )
+            return this;
+        
+        IntStorage moved = Create( size, mode );
+        moved.CopyFrom( this, 0, 0, size );
+        return moved;
+    }
+    
+    /**
+     * Copy values from another store.
+     * @param source store to copy from
+     * @param from first index in source
+     * @param to first index in this store
+     * @param length number of values
+     */
+    public void CopyFrom( IntStorage source, int from, int to, int length )
+    {
+        for(int i = 0; i < length; i++)
+            Set( to + i, source.Get(from + i) );
+    }
+    
+    /**
+     * @param size number of leading values to copy
+     * @return values as heap array
+     */
+    public int[] ToArray( int size )
+    {
+        int[] values = new int[size];
+        for(int i = 0; i < size; i++)
+            values[i] = Get(i);
+        return values;
+    }
+    
+    public static IntStorage Create( int size, Table.StorageMode mode )
+    {
+        switch( mode )
+        {
+            case Heap:
+                return new Heap( new int[size] );
+            case Direct:
+                return new Buffers( DoubleStorage.AllocateDirect( size, 4 ), size, mode );
+            case Mapped:
+                return new Buffers( DoubleStorage.AllocateMapped( size, 4 ), size, mode );
+            default:
+                throw new AssertionError();
+        }
+    }
+    
+    /**
+     * Store on top of an array, the array is used as is.
+     */
+    public static IntStorage Wrap( int[] data )
+    {
+        return new Heap( data );
+    }
+    
+    /**
+     * Store on top of a file region, 4 byte little-endian values.
+     * @param channel open file
+     * @param offset region start
+     * @param size number of values
+     * @param mapMode READ_ONLY, READ_WRITE or PRIVATE (changes stay in memory)
+     * @return mapped store
+     * @throws IOException 
+     */
+    public static IntStorage Map( FileChannel channel, long offset, int size, FileChannel.MapMode mapMode ) throws IOException
+    {
+        return new Buffers( DoubleStorage.MapSegments( channel, offset, size, 4, mapMode ), size, Table.StorageMode.Mapped );
+    }
+    
+    static final class Heap extends IntStorage
+    {
+        final int[] Data;
+        
+        Heap( int[] data )
+        {
+            this.Data = data;
+        }
+        
+        @Override
+        public int Get( int index )
+        {
+            return Data[index];
+        }
+        
+        @Override
+        public void Set( int index, int value )
+        {
+            Data[index] = value;
+        }
+        
+        @Override
+        public int Size()
+        {
+            return Data.length;
+        }
+        
+        @Override
+        public Table.StorageMode GetMode()
+        {
+            return Table.StorageMode.Heap;
+        }
+        
+        @Override
+        public int[] GetArray()
+        {
+            return Data;
+        }
+        
+        @Override
+        public IntStorage Resize( int size )
+        {
+            return new Heap( Arrays.copyOf(Data, size) );
+        }
+        
+        @Override
+        public void CopyFrom( IntStorage source, int from, int to, int length )
+        {
+            if( source.GetArray() != null )
+                System.arraycopy( source.GetArray(), from, Data, to, length );
+            else
+                super.CopyFrom( source, from, to, length );
+        }
+        
+        @Override
+        public int[] ToArray( int size )
+        {
+            return Arrays.copyOf(Data, size);
+        }
+    }
+    
+    static final class Buffers extends IntStorage
+    {
+        final IntBuffer[] Segments;
+        final int Size;
+        final Table.StorageMode Mode;
+        
+        Buffers( ByteBuffer[] segments, int size, Table.StorageMode mode )
+        {
+            this.Segments = new IntBuffer[segments.length];
+            for(int s = 0; s < segments.length; s++)
+                this.Segments[s] = segments[s].asIntBuffer();
+            
+            this.Size = size;
+            this.Mode = mode;
+        }
+        
+        @Override
+        public int Get( int index )
+        {
+            return Segments[ index >>> DoubleStorage.SEGMENT_SHIFT ].get( index & DoubleStorage.SEGMENT_MASK );
+        }
+        
+        @Override
+        public void Set( int index, int value )
+        {
+            Segments[ index >>> DoubleStorage.SEGMENT_SHIFT ].put( index & DoubleStorage.SEGMENT_MASK, value );
+        }
+        
+        @Override
+        public int Size()
+        {
+            return Size;
+        }
+        
+        @Override
+        public Table.StorageMode GetMode()
+        {
+            return Mode;
+        }
+    }
+}
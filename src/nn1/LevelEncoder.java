@@ -0,0 +1,113 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Jacob Cornelius Mosebo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package nn1;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Assigns level codes to values in one pass, one hash lookup per value.
+ * Codes are given in order of first appearance.
+ * With a cap on cardinality the last code is an "other" bucket that takes every value beyond the cap.
+ */
+public class LevelEncoder
+{
+    /** Level of the bucket for values beyond the cap */
+    public static final String OTHER_LEVEL = "<other>";
+    
+    HashMap<String,Integer> LevelCodes;
+    ArrayList<String> LevelValues;
+    
+    // 0 for no cap
+    int MaxLevels;
+    int OtherCode;
+    
+    public LevelEncoder()
+    {
+        this(0);
+    }
+    
+    /**
+     * @param maxLevels maximum number of levels including the "other" bucket, 0 for no cap
+     */
+    public LevelEncoder( int maxLevels )
+    {
+        if( maxLevels == 1 )
+            throw new IllegalArgumentException("Level cap must leave room for the other bucket: " + maxLevels);
+        
+        this.LevelCodes = new HashMap<>();
+        this.LevelValues = new ArrayList<>();
+        this.MaxLevels = Math.max( maxLevels, 0 );
+        this.OtherCode = -1;
+    }
+    
+    /**
+     * Get the code of value, a new value gets the next code or the "other" bucket when the cap is reached.
+     * @param value level value
+     * @return level code
+     */
+    public int Encode( String value )
+    {
+        Integer code = LevelCodes.get(value);
+        
+        if( code != null )
+            return code;
+        
+        if( MaxLevels > 0 && ( value.equals(OTHER_LEVEL) || LevelValues.size() >= MaxLevels - 1 ) )
+            return Other();
+        
+        code = LevelValues.size();
+        LevelCodes.put(value, code);
+        LevelValues.add(value);
+        
+        return code;
+    }
+    
+    private int Other()
+    {
+        if( OtherCode < 0 )
+        {
+            OtherCode = LevelValues.size();
+            LevelCodes.put(OTHER_LEVEL, OtherCode);
+            LevelValues.add(OTHER_LEVEL);
+        }
+        
+        return OtherCode;
+    }
+    
+    public int GetLevelCount()
+    {
+        return LevelValues.size();
+    }
+    
+    public String GetLevel( int code )
+    {
+        return LevelValues.get(code);
+    }
+    
+    public String[] GetLevels()
+    {
+        return LevelValues.toArray( new String[LevelValues.size()] );
+    }
+}
@@ -87,6 +87,12 @@ public class Nn1
         
         if(Nn1.DEV_MODE) System.out.println("exes at " + IdxExOrb + " and " + IdxExShd );
         
+        // Test float precision, before the SOM fills in missing values
+        
+        /*
+        TestPrecision( tData, columnIOMapping );
+        */
+        
         // Test PCA
         
         /*
@@ -119,7 +125,8 @@ public class Nn1
         int inputSize = columnIOMapping.length - response_var_idx.size();
         int outputSize = response_var_idx.size();
         
-        double[][] training_data = tData.GetNormalizedDataSetAsArray_rc();
+        double[] training_data = tData.GetNormalizedData_rc();
+        int row_count = tData.GetRowCount();
         
         NeuralNetwork_feedforward_leakyReLu nn_test = new NeuralNetwork_feedforward_leakyReLu();
         
@@ -168,7 +175,7 @@ public class Nn1
             Column_Number new_col = new Column_Number("" + tData.GetColumnNameByPosition( response_var_idx.get(o) ) + ".predict" );
             ArrayList<Double> predictions_asCol = new ArrayList<>();
             
-            for(int r = 0; r < training_data.length; r++)
+            for(int r = 0; r < row_count; r++)
                 predictions_asCol.add( tData.DenormalizeColumnValue( response_var_idx.get(o), predictions[r][o]) );
             
             new_col.SetData( predictions_asCol );
@@ -209,5 +216,83 @@ public class Nn1
         CsvReader.WriteLines(resultsFilename, lines);
     }
     
+    /**
+     * Check Float32 models against Float64 models on the same table. Each pair starts from the same weights and
+     * trains in the same order, so they differ by float rounding only.
+     * @throws AssertionError if a float result is out of tolerance
+     */
+    public void TestPrecision( Table tData, int[] columnIOMapping )
+    {
+        long seed = 1;
+        double data_tolerance = Math.ulp(1f) / 2;   // Rounding of a value in [0:1] to float
+        double nn_tolerance = 1e-5;                 // Max absolute difference of a prediction
+        double som_tolerance = 0.05;                // Relative difference of the final error, near ties of the BMU can go either way
+        
+        // Normalized data rounding
+        double[] data_f64 = tData.GetNormalizedData_rc();
+        float[] data_f32 = tData.GetNormalizedData_rc_f32();
+        
+        double max_diff = 0d;
+        for(int i = 0; i < data_f64.length; i++)
+            max_diff = Math.max( max_diff, Math.abs( data_f64[i] - data_f32[i] ) );
+        
+        if(Nn1.DEV_MODE) System.out.println("Normalized data max abs diff f64/f32: " + max_diff);
+        
+        if( !(max_diff <= data_tolerance) )
+            throw new AssertionError("Float data set differs by " + max_diff + ", tolerance " + data_tolerance);
+        
+        // SOM, both initialized from the principal components and trained the same sessions in seeded order
+        SelfOrganizingMap_arr_hc_toroid som_f64 = new SelfOrganizingMap_arr_hc_toroid( tData, Table.Precision.Float64 );
+        som_f64.Initialize(16, 16);
+        SelfOrganizingMap_arr_hc_toroid som_f32 = new SelfOrganizingMap_arr_hc_toroid( tData, Table.Precision.Float32 );
+        som_f32.Initialize(16, 16);
+        
+        double som_mse_f64 = 0d;
+        double som_mse_f32 = 0d;
+        
+        for(int i = 1; i <= 5; i++)
+        {
+            som_mse_f64 = som_f64.Train_SeededOrder(null, 1, 0.05, 3, i);
+            som_mse_f32 = som_f32.Train_SeededOrder(null, 1, 0.05, 3, i);
+        }
+        
+        double som_diff = Math.abs( som_mse_f32 - som_mse_f64 ) / som_mse_f64;
+        if(Nn1.DEV_MODE) System.out.println("SOM error f64: " + som_mse_f64 + "\tf32: " + som_mse_f32 + "\trelative diff: " + som_diff);
+        
+        if( !(som_diff <= som_tolerance) )
+            throw new AssertionError("Float SOM error differs by " + som_diff + ", tolerance " + som_tolerance);
+        
+        // NN, same seed for weights and Monte Carlo order
+        int outputSize = 0;
+        for(int i = 0; i < columnIOMapping.length; i++)
+            if(columnIOMapping[i] == -1)
+                outputSize++;
+        int inputSize = columnIOMapping.length - outputSize;
+        
+        NeuralNetwork_feedforward_leakyReLu nn_f64 = new NeuralNetwork_feedforward_leakyReLu( Table.Precision.Float64 );
+        nn_f64.Initialize(inputSize, outputSize, 16, 4, seed);
+        NeuralNetwork_feedforward_leakyReLu nn_f32 = new NeuralNetwork_feedforward_leakyReLu( Table.Precision.Float32 );
+        nn_f32.Initialize(inputSize, outputSize, 16, 4, seed);
+        
+        for(int i = 0; i < 20; i++)
+        {
+            nn_f64.Train(data_f64, columnIOMapping, 0.01, NeuralNetwork_feedforward_leakyReLu.TrainingMethod.MonteCarlo, false);
+            nn_f32.Train(data_f32, columnIOMapping, 0.01, NeuralNetwork_feedforward_leakyReLu.TrainingMethod.MonteCarlo, false);
+        }
+        
+        double[][] predictions_f64 = nn_f64.Predict(data_f64, columnIOMapping);
+        double[][] predictions_f32 = nn_f32.Predict(data_f32, columnIOMapping);
+        
+        double nn_diff = 0d;
+        for(int r = 0; r < predictions_f64.length; r++)
+            for(int o = 0; o < outputSize; o++)
+                nn_diff = Math.max( nn_diff, Math.abs( predictions_f64[r][o] - predictions_f32[r][o] ) );
+        
+        if(Nn1.DEV_MODE) System.out.println("NN prediction max abs diff f64/f32: " + nn_diff);
+        
+        if( !(nn_diff <= nn_tolerance) )
+            throw new AssertionError("Float NN predictions differ by " + nn_diff + ", tolerance " + nn_tolerance);
+    }
+    
 }
 
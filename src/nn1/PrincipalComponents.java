@@ -0,0 +1,748 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Jacob Cornelius Mosebo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package nn1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Principal components of a row-major data set, the leading eigenvectors of X'X.
+ * Covariance reads the data once to build the width x width matrix, components are then found by power iteration on it,
+ * keeping each orthogonal to those found before. Randomized iterates on a random subspace of a few more dimensions than
+ * components, reading the data a fixed number of times without forming the matrix.
+ * Data is not centered, as NIPALS on the normalized data was not.
+ * An instance holds the components of a table at one data version, as cached by Table.GetPrincipalComponents.
+ */
+public class PrincipalComponents
+{
+    public enum Method
+    {
+        Auto, Covariance, Randomized
+    }
+    
+    static final int MAX_ITERATIONS = 1000;
+    
+    // Randomized: dimensions of the subspace beyond the components, power iterations over the data
+    static final int OVERSAMPLING = 5;
+    static final int POWER_ITERATIONS = 2;
+    static final long SEED = 0x5eed;
+    
+    // Multiply-adds per parallel slice at least, smaller data sets are accumulated in the calling thread
+    static final int SLICE_WORK = 1 << 22;
+    
+    // Slices per pool thread at most, each slice holds a matrix until merged
+    static final int SLICES_PER_THREAD = 4;
+    
+    // Cells per block of rows read from a table that is not on the heap
+    static final int BLOCK_CELLS = 1 << 16;
+    
+    // Request and table data version the components were computed for
+    final Table Source;
+    final long Version;
+    final double Tolerance;
+    final int Amount;
+    final Method Requested;
+    
+    final ArrayList<double[]> Loadings;
+    final double[] Eigenvalues;
+    final double Total; // Sum of squares of the data, trace of X'X
+    
+    // Built on first use
+    double[] Scores;
+    
+    PrincipalComponents( Table source, long version, double tolerance, int amount, Method requested, ArrayList<double[]> loadings, double[] eigenvalues, double total )
+    {
+        this.Source = source;
+        this.Version = version;
+        this.Tolerance = tolerance;
+        this.Amount = amount;
+        this.Requested = requested;
+        this.Loadings = loadings;
+        this.Eigenvalues = eigenvalues;
+        this.Total = total;
+    }
+    
+    // Same request on the same data
+    boolean Matches( long version, double tolerance, int amount, Method requested )
+    {
+        return Version == version && Tolerance == tolerance && Amount == amount && Requested == requested;
+    }
+    
+    public int GetAmount()
+    {
+        return Amount;
+    }
+    
+    /**
+     * @return unit loadings per component [table width], copies
+     */
+    public ArrayList<double[]> GetLoadings()
+    {
+        ArrayList<double[]> loadings = new ArrayList<>();
+        for(double[] v : Loadings)
+            loadings.add( Arrays.copyOf( v, v.length ) );
+        return loadings;
+    }
+    
+    /**
+     * @return eigenvalue of X'X per component
+     */
+    public double[] GetEigenvalues()
+    {
+        return Arrays.copyOf( Eigenvalues, Amount );
+    }
+    
+    /**
+     * Share of the sum of squares of the data along each component, of the uncentered data as the components are.
+     */
+    public double[] GetExplainedVariance()
+    {
+        double[] explained = new double[Amount];
+        
+        if( Total > 0d )
+            for(int k = 0; k < Amount; k++)
+                explained[k] = Eigenvalues[k] / Total;
+        
+        return explained;
+    }
+    
+    /**
+     * Scores of the table rows, the normalized data projected on the loadings.
+     * The array is shared between callers and must not be modified.
+     * @return scores [row count * amount], row-major
+     * @throws IllegalStateException if the table data has changed since the components were computed, or the scores are more than one array holds
+     */
+    public double[] GetScores()
+    {
+        if( Source.GetVersion() != Version )
+            throw new IllegalStateException("Table has changed since the components were computed");
+        
+        double[] scores = Scores;
+        
+        if( scores == null )
+        {
+            int width = Source.GetTableWidth();
+            int rows = Source.GetRowCount();
+            
+            if( (long) rows * Amount > Table.MAX_FLAT_CELLS )
+                throw new IllegalStateException("Scores of " + rows + " rows by " + Amount + " components are more than one array holds");
+            
+            // Rows are read a block at a time, unless the normalized data set is on the heap already
+            double[] flat = Source.Normalized_rc;
+            boolean heap = (flat != null);
+            int block = BlockRows( width );
+            double[] data = (heap ? flat : new double[ Math.min( block, rows ) * width ]);
+            
+            scores = new double[ rows * Amount ];
+            
+            for(int r = 0; r < rows; r++)
+            {
+                if( !heap && r % block == 0 )
+                    Source.GetNormalizedRows( r, Math.min( r + block, rows ), data );
+                
+                int base = (heap ? r : r % block) * width;
+                
+                for(int k = 0; k < Amount; k++)
+                {
+                    double[] v = Loadings.get(k);
+                    double sum = 0d;
+                    
+                    for(int i = 0; i < width; i++)
+                        sum += data[base + i] * v[i];
+                    
+                    scores[r * Amount + k] = sum;
+                }
+            }
+            
+            Scores = scores;
+        }
+        
+        return scores;
+    }
+    
+    /**
+     * Leading principal components.
+     * @param data cell (row, position) at row * width + position
+     * @param width
+     * @param tolerance convergence of the power iteration, mean absolute change of a component
+     * @param amount number of components
+     * @param method Auto takes Randomized if the subspace is small next to the width, else Covariance
+     * @param eigenvalues receives X'X eigenvalue per component if not null
+     * @return unit loadings per component [width]
+     */
+    public static ArrayList<double[]> Compute( double[] data, int width, double tolerance, int amount, Method method, double[] eigenvalues )
+    {
+        if( method == Method.Auto )
+        {
+            // X'X costs width / 2 multiply-adds per cell, each randomized pass 2 per cell and subspace dimension
+            long pass_work = 2L * (POWER_ITERATIONS + 1) * (amount + OVERSAMPLING);
+            method = (2 * pass_work < width ? Method.Randomized : Method.Covariance);
+        }
+        
+        if( method == Method.Randomized )
+            return Randomized( data, width, tolerance, amount, eigenvalues, ForkJoinPool.commonPool() );
+        
+        return Eigenvectors( GramMatrix( data, width ), width, tolerance, amount, eigenvalues );
+    }
+    
+    /**
+     * Leading principal components by randomized subspace iteration (Halko, Martinsson and Tropp), Q = orth(X'X Q)
+     * from a random Q of amount + OVERSAMPLING columns, then Rayleigh-Ritz on (XQ)'(XQ).
+     * Reads the data POWER_ITERATIONS + 1 times whatever the tolerance, each pass on the pool.
+     * @param data cell (row, position) at row * width + position
+     * @param width
+     * @param tolerance convergence of the power iteration on the small projected matrix
+     * @param amount number of components
+     * @param eigenvalues receives the eigenvalue estimate per component if not null
+     * @param pool
+     * @return unit loadings per component [width]
+     */
+    public static ArrayList<double[]> Randomized( double[] data, int width, double tolerance, int amount, double[] eigenvalues, ForkJoinPool pool )
+    {
+        int dims = Math.min( amount + OVERSAMPLING, width );
+        
+        // Fixed seed, the same data gives the same components
+        Random random = new Random( SEED );
+        
+        double[][] q = new double[dims][width];
+        for(int j = 0; j < dims; j++)
+            for(int i = 0; i < width; i++)
+                q[j][i] = random.nextGaussian();
+        Orthonormalize( q, random );
+        
+        double[][] z = new double[dims][];
+        
+        for(int iteration = 0; iteration < POWER_ITERATIONS; iteration++)
+        {
+            Pass( data, width, q, z, null, pool );
+            
+            double[][] swap = q;
+            q = z;
+            z = swap;
+            Orthonormalize( q, random );
+        }
+        
+        // Small matrix T = (XQ)'(XQ), its eigenvectors w give the loadings Qw
+        double[] t = new double[ dims * dims ];
+        Pass( data, width, q, null, t, pool );
+        
+        double[] small_values = new double[amount];
+        ArrayList<double[]> small = Eigenvectors( t, dims, tolerance, Math.min( amount, dims ), small_values );
+        
+        ArrayList<double[]> vectors = new ArrayList<>();
+        for(int k = 0; k < amount; k++)
+        {
+            double[] v = new double[width];
+            
+            if( k < small.size() )
+            {
+                for(int j = 0; j < dims; j++)
+                    for(int i = 0; i < width; i++)
+                        v[i] += q[j][i] * small.get(k)[j];
+                
+                Orient( v );
+            }
+            
+            if( eigenvalues != null )
+                eigenvalues[k] = small_values[k];
+            
+            vectors.add( v );
+        }
+        
+        return vectors;
+    }
+    
+    /**
+     * X'(XQ) into z and (XQ)'(XQ) into t, where given, from one pass over the data.
+     * @param q columns of Q [dims][width]
+     * @param z receives the columns of X'XQ [dims][width], or null
+     * @param t receives (XQ)'(XQ) [dims * dims], or null
+     */
+    static void Pass( double[] data, int width, double[][] q, double[][] z, double[] t, ForkJoinPool pool )
+    {
+        int dims = q.length;
+        int rows = (width == 0 ? 0 : data.length / width);
+        
+        int slices = Slices( rows, 2L * width * dims + (long) dims * dims, pool );
+        int slice_rows = (rows + slices - 1) / slices;
+        
+        ArrayList<PassTask> tasks = new ArrayList<>();
+        for(int from = 0; from < rows || tasks.isEmpty(); from += slice_rows)
+            tasks.add( new PassTask( data, width, q, from, Math.min( from + slice_rows, rows ), z != null, t != null ) );
+        
+        if( tasks.size() > 1 )
+            for(PassTask task : tasks)
+                pool.execute(task);
+        
+        double[][] sums = (tasks.size() > 1 ? tasks.get(0).join() : tasks.get(0).compute());
+        for(int s = 1; s < tasks.size(); s++)
+        {
+            double[][] part = tasks.get(s).join();
+            
+            for(int j = 0; j < sums.length; j++)
+                if( sums[j] != null )
+                    for(int i = 0; i < sums[j].length; i++)
+                        sums[j][i] += part[j][i];
+        }
+        
+        if( z != null )
+            System.arraycopy( sums, 0, z, 0, dims );
+        
+        if( t != null )
+            System.arraycopy( sums[dims], 0, t, 0, dims * dims );
+    }
+    
+    // Sums of rows from .. to - 1, the columns of X'XQ then (XQ)'(XQ) last
+    static double[][] Pass( double[] data, int width, double[][] q, int from, int to, boolean with_z, boolean with_t )
+    {
+        int dims = q.length;
+        double[][] sums = new double[dims + 1][];
+        
+        if( with_z )
+            for(int j = 0; j < dims; j++)
+                sums[j] = new double[width];
+        
+        if( with_t )
+            sums[dims] = new double[ dims * dims ];
+        
+        double[] y = new double[dims];
+        
+        for(int r = from; r < to; r++)
+        {
+            int row = r * width;
+            
+            // y = xQ
+            for(int j = 0; j < dims; j++)
+            {
+                double[] q_j = q[j];
+                double sum = 0d;
+                
+                for(int i = 0; i < width; i++)
+                    sum += data[row + i] * q_j[i];
+                
+                y[j] = sum;
+            }
+            
+            // z += x'y
+            if( with_z )
+                for(int j = 0; j < dims; j++)
+                {
+                    double[] z_j = sums[j];
+                    double y_j = y[j];
+                    
+                    if( y_j != 0d )
+                        for(int i = 0; i < width; i++)
+                            z_j[i] += data[row + i] * y_j;
+                }
+            
+            // t += y'y
+            if( with_t )
+                for(int j = 0; j < dims; j++)
+                    for(int m = 0; m < dims; m++)
+                        sums[dims][j * dims + m] += y[j] * y[m];
+        }
+        
+        return sums;
+    }
+    
+    @SuppressWarnings("serial")
+    private static class PassTask extends RecursiveTask<double[][]>
+    {
+        final double[] Data;
+        final int Width;
+        final double[][] Q;
+        final int From;
+        final int To;
+        final boolean With_z;
+        final boolean With_t;
+        
+        PassTask( double[] data, int width, double[][] q, int from, int to, boolean with_z, boolean with_t )
+        {
+            this.Data = data;
+            this.Width = width;
+            this.Q = q;
+            this.From = from;
+            this.To = to;
+            this.With_z = with_z;
+            this.With_t = with_t;
+        }
+        
+        @Override
+        protected double[][] compute()
+        {
+            return Pass( Data, Width, Q, From, To, With_z, With_t );
+        }
+    }
+    
+    // Modified Gram-Schmidt on the columns, a column that vanishes is replaced by a random one
+    static void Orthonormalize( double[][] q, Random random )
+    {
+        ArrayList<double[]> done = new ArrayList<>();
+        
+        for(double[] column : q)
+        {
+            Project( done, column );
+            
+            while( Normalize( column ) < 1e-12 )
+            {
+                for(int i = 0; i < column.length; i++)
+                    column[i] = random.nextGaussian();
+                Project( done, column );
+            }
+            
+            done.add( column );
+        }
+    }
+    
+    // Number of parallel slices for rows of some work each
+    static int Slices( int rows, long row_work, ForkJoinPool pool )
+    {
+        return (int) Math.max( 1, Math.min( (long) pool.getParallelism() * SLICES_PER_THREAD, rows * row_work / SLICE_WORK ) );
+    }
+    
+    /**
+     * Gram matrix X'X of a row-major data set, in parallel on the common pool.
+     * @param data cell (row, position) at row * width + position
+     * @param width
+     * @return symmetric matrix [width * width], cell (i, j) at i * width + j
+     */
+    public static double[] GramMatrix( double[] data, int width )
+    {
+        return GramMatrix( data, width, ForkJoinPool.commonPool() );
+    }
+    
+    /**
+     * Gram matrix X'X of a row-major data set. Contiguous row slices are accumulated by tasks on the pool,
+     * each into its own upper triangle, which are summed in row order so the result does not depend on scheduling.
+     * @param data cell (row, position) at row * width + position
+     * @param width
+     * @param pool
+     * @return symmetric matrix [width * width], cell (i, j) at i * width + j
+     */
+    public static double[] GramMatrix( double[] data, int width, ForkJoinPool pool )
+    {
+        return GramMatrix( data, null, width, (width == 0 ? 0 : data.length / width), pool );
+    }
+    
+    /**
+     * Gram matrix X'X of the normalized data of a table, missing values are 0. Rows are read from the columns
+     * a block at a time, so the data set is never held whole on the heap. Row slices in parallel on the pool.
+     * @param table
+     * @param pool
+     * @return symmetric matrix [width * width], cell (i, j) at i * width + j
+     */
+    public static double[] GramMatrix( Table table, ForkJoinPool pool )
+    {
+        return GramMatrix( null, table, table.GetTableWidth(), table.GetRowCount(), pool );
+    }
+    
+    // Rows of data if not null, else of the table
+    static double[] GramMatrix( double[] data, Table table, int width, int rows, ForkJoinPool pool )
+    {
+        int slices = Slices( rows, (long) width * (width + 1) / 2 + 1, pool );
+        
+        if( slices <= 1 )
+        {
+            double[] gram = new double[ width * width ];
+            Accumulate( data, table, width, 0, rows, gram );
+            Mirror( gram, width );
+            return gram;
+        }
+        
+        // Slices of whole blocks of four rows
+        int slice_rows = ((rows + slices - 1) / slices + 3) & ~3;
+        
+        ArrayList<SliceTask> tasks = new ArrayList<>();
+        for(int from = 0; from < rows; from += slice_rows)
+            tasks.add( new SliceTask( data, table, width, from, Math.min( from + slice_rows, rows ) ) );
+        
+        for(SliceTask task : tasks)
+            pool.execute(task);
+        
+        double[] gram = tasks.get(0).join();
+        for(int t = 1; t < tasks.size(); t++)
+        {
+            double[] part = tasks.get(t).join();
+            
+            for(int i = 0; i < width; i++)
+                for(int j = i; j < width; j++)
+                    gram[i * width + j] += part[i * width + j];
+        }
+        
+        Mirror( gram, width );
+        
+        return gram;
+    }
+    
+    // Accumulate rows of data if not null, else of the table
+    static void Accumulate( double[] data, Table table, int width, int from, int to, double[] gram )
+    {
+        if( data != null )
+        {
+            Accumulate( data, width, from, to, gram );
+            return;
+        }
+        
+        int block = BlockRows( width );
+        double[] buffer = new double[ Math.min( block, to - from ) * width ];
+        
+        for(int start = from; start < to; start += block)
+        {
+            int end = Math.min( start + block, to );
+            table.GetNormalizedRows( start, end, buffer );
+            Accumulate( buffer, width, 0, end - start, gram );
+        }
+    }
+    
+    // Rows per block read from a table, whole blocks of four rows
+    static int BlockRows( int width )
+    {
+        return Math.max( 4, BLOCK_CELLS / Math.max( 1, width ) & ~3 );
+    }
+    
+    /**
+     * Add x'x of rows from .. to - 1 to the upper triangle of gram, i &lt;= j.
+     * Rows are taken four at a time so every load and store of gram serves four rows.
+     */
+    static void Accumulate( double[] data, int width, int from, int to, double[] gram )
+    {
+        int r = from;
+        
+        for(; r + 4 <= to; r += 4)
+        {
+            int r0 = r * width, r1 = r0 + width, r2 = r1 + width, r3 = r2 + width;
+            
+            for(int i = 0; i < width; i++)
+            {
+                double x0 = data[r0 + i], x1 = data[r1 + i], x2 = data[r2 + i], x3 = data[r3 + i];
+                int row = i * width;
+                
+                for(int j = i; j < width; j++)
+                    gram[row + j] += x0 * data[r0 + j] + x1 * data[r1 + j] + x2 * data[r2 + j] + x3 * data[r3 + j];
+            }
+        }
+        
+        for(; r < to; r++)
+        {
+            int r0 = r * width;
+            
+            for(int i = 0; i < width; i++)
+            {
+                double x0 = data[r0 + i];
+                int row = i * width;
+                
+                if( x0 != 0d )
+                    for(int j = i; j < width; j++)
+                        gram[row + j] += x0 * data[r0 + j];
+            }
+        }
+    }
+    
+    @SuppressWarnings("serial")
+    private static class SliceTask extends RecursiveTask<double[]>
+    {
+        final double[] Data;
+        final Table Source;
+        final int Width;
+        final int From;
+        final int To;
+        
+        SliceTask( double[] data, Table source, int width, int from, int to )
+        {
+            this.Data = data;
+            this.Source = source;
+            this.Width = width;
+            this.From = from;
+            this.To = to;
+        }
+        
+        @Override
+        protected double[] compute()
+        {
+            double[] gram = new double[ Width * Width ];
+            Accumulate( Data, Source, Width, From, To, gram );
+            return gram;
+        }
+    }
+    
+    // Sum of the diagonal
+    static double Trace( double[] matrix, int width )
+    {
+        double trace = 0d;
+        for(int i = 0; i < width; i++)
+            trace += matrix[i * width + i];
+        return trace;
+    }
+    
+    // Copy the upper triangle to the lower
+    static void Mirror( double[] gram, int width )
+    {
+        for(int i = 0; i < width; i++)
+            for(int j = i + 1; j < width; j++)
+                gram[j * width + i] = gram[i * width + j];
+    }
+    
+    /**
+     * Leading eigenvectors of a symmetric positive semi-definite matrix, by power iteration with the found vectors projected out.
+     * @param matrix [width * width], not modified
+     * @param width
+     * @param tolerance stop when the mean absolute change of the vector is below
+     * @param amount number of vectors
+     * @param eigenvalues receives the eigenvalue of each vector if not null
+     * @return unit vectors in order of decreasing eigenvalue, the largest element of each is positive
+     */
+    public static ArrayList<double[]> Eigenvectors( double[] matrix, int width, double tolerance, int amount, double[] eigenvalues )
+    {
+        ArrayList<double[]> vectors = new ArrayList<>();
+        
+        double[] v = new double[width];
+        double[] v_next = new double[width];
+        
+        for(int k = 0; k < amount; k++)
+        {
+            // Start from the column with the largest diagonal, it is zero only if all of the matrix is
+            int start = 0;
+            for(int i = 1; i < width; i++)
+                if( matrix[i * width + i] > matrix[start * width + start] )
+                    start = i;
+            
+            for(int i = 0; i < width; i++)
+                v[i] = matrix[i * width + start];
+            
+            Project( vectors, v );
+            
+            if( Normalize( v ) == 0d )
+            {
+                Arrays.fill( v, 0d );
+                v[start] = 1d;
+                Project( vectors, v );
+                Normalize( v );
+            }
+            
+            double delta_last = Double.NaN;
+            
+            for(int iterations = 0; iterations < MAX_ITERATIONS; iterations++)
+            {
+                Multiply( matrix, width, v, v_next );
+                Project( vectors, v_next );
+                
+                if( Normalize( v_next ) == 0d )
+                    break;
+                
+                double delta = 0d;
+                for(int i = 0; i < width; i++)
+                    delta += Math.abs( v_next[i] - v[i] );
+                delta = delta / width;
+                
+                double[] swap = v;
+                v = v_next;
+                v_next = swap;
+                
+                // Stop when converged or stuck
+                if( delta < tolerance || delta == delta_last )
+                    break;
+                
+                delta_last = delta;
+            }
+            
+            Orient( v );
+            
+            // Eigenvalue v'Av
+            if( eigenvalues != null )
+            {
+                Multiply( matrix, width, v, v_next );
+                
+                double lambda = 0d;
+                for(int i = 0; i < width; i++)
+                    lambda += v[i] * v_next[i];
+                
+                eigenvalues[k] = lambda;
+            }
+            
+            vectors.add( Arrays.copyOf( v, width ) );
+        }
+        
+        return vectors;
+    }
+    
+    // Make the largest element positive
+    static void Orient( double[] v )
+    {
+        int largest = 0;
+        for(int i = 1; i < v.length; i++)
+            if( Math.abs( v[i] ) > Math.abs( v[largest] ) )
+                largest = i;
+        
+        if( v.length > 0 && v[largest] < 0d )
+            for(int i = 0; i < v.length; i++)
+                v[i] = -v[i];
+    }
+    
+    // y = Ax
+    static void Multiply( double[] a, int width, double[] x, double[] y )
+    {
+        for(int i = 0; i < width; i++)
+        {
+            double sum = 0d;
+            int row = i * width;
+            
+            for(int j = 0; j < width; j++)
+                sum += a[row + j] * x[j];
+            
+            y[i] = sum;
+        }
+    }
+    
+    // Remove the parts along the unit vectors
+    static void Project( ArrayList<double[]> vectors, double[] v )
+    {
+        for(double[] u : vectors)
+        {
+            double dot = 0d;
+            for(int i = 0; i < v.length; i++)
+                dot += u[i] * v[i];
+            
+            for(int i = 0; i < v.length; i++)
+                v[i] -= dot * u[i];
+        }
+    }
+    
+    // Scale to unit length, returns the length before
+    static double Normalize( double[] v )
+    {
+        double length = 0d;
+        for(int i = 0; i < v.length; i++)
+            length += v[i] * v[i];
+        length = Math.sqrt( length );
+        
+        if( length > 0d )
+            for(int i = 0; i < v.length; i++)
+                v[i] = v[i] / length;
+        
+        return length;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Jacob Cornelius Mosebo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package nn1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * KLL quantile sketch of a numeric column, missing values (NaN) are skipped.
+ * Keeps O(K) values in compactor levels, an item on level h stands for 2^h values.
+ * Rank error is around 1.7 / K of the count, sketches of row ranges merge into a sketch of the union.
+ */
+public class QuantileSketch
+{
+    public static final int DEFAULT_K = 200;
+    
+    final int K;
+    final Random Coin;
+    
+    double[][] Levels = new double[1][8];
+    int[] Sizes = new int[1];
+    int Size = 0; // Items over all levels
+    int Capacity = 0; // Items allowed over all levels, recomputed when a level is added
+    
+    long Count = 0;
+    double Min = Double.POSITIVE_INFINITY;
+    double Max = Double.NEGATIVE_INFINITY;
+    
+    // Items sorted with cumulative weights, built on query and dropped on change
+    double[] Sorted_values;
+    long[] Sorted_ranks;
+    
+    public QuantileSketch()
+    {
+        this( DEFAULT_K, 1 );
+    }
+    
+    /**
+     * @param k accuracy, items kept on the top level
+     * @param seed compaction coin seed, equal input and seed gives an equal sketch
+     */
+    public QuantileSketch( int k, long seed )
+    {
+        if( k < 8 )
+            throw new IllegalArgumentException("Sketch size too small: " + k);
+        
+        this.K = k;
+        this.Coin = new Random(seed);
+        this.Capacity = LevelCapacity(0);
+    }
+    
+    /**
+     * Add value, NaN is ignored.
+     * @param value 
+     */
+    public void Add( double value )
+    {
+        if( Double.isNaN(value) )
+            return;
+        
+        Count++;
+        
+        if( value < Min )
+            Min = value;
+        if( value > Max )
+            Max = value;
+        
+        Append( 0, value );
+        Sorted_values = null;
+        
+        if( Size > Capacity )
+            Compress();
+    }
+    
+    /**
+     * Combine with the sketch of another set of values.
+     * @param other 
+     */
+    public void Merge( QuantileSketch other )
+    {
+        if( other.Count == 0 )
+            return;
+        
+        for(int h = 0; h < other.Sizes.length; h++)
+            for(int i = 0; i < other.Sizes[h]; i++)
+                Append( h, other.Levels[h][i] );
+        
+        Count += other.Count;
+        Min = Math.min( Min, other.Min );
+        Max = Math.max( Max, other.Max );
+        Sorted_values = null;
+        
+        while( Size > Capacity )
+            Compress();
+    }
+    
+    public long GetCount()
+    {
+        return Count;
+    }
+    
+    /**
+     * Approximate quantile.
+     * @param q fraction of values below the result, 0 is the minimum and 1 the maximum
+     * @return value at q, NaN if there are no values
+     */
+    public double GetQuantile( double q )
+    {
+        if( Count == 0 )
+            return Double.NaN;
+        if( q <= 0d )
+            return Min;
+        if( q >= 1d )
+            return Max;
+        
+        Sort();
+        
+        long rank = (long) Math.ceil( q * Sorted_ranks[Sorted_ranks.length - 1] );
+        
+        int i = Arrays.binarySearch( Sorted_ranks, rank );
+        if( i < 0 )
+            i = -i - 1;
+        
+        return Sorted_values[i];
+    }
+    
+    /**
+     * Approximate fraction of values below or equal to value.
+     */
+    public double GetRank( double value )
+    {
+        if( Count == 0 )
+            return Double.NaN;
+        
+        Sort();
+        
+        int i = Arrays.binarySearch( Sorted_values, value );
+        if( i < 0 )
+            i = -i - 2;
+        else
+            while( i + 1 < Sorted_values.length && Sorted_values[i + 1] == value )
+                i++;
+        
+        return i < 0 ? 0d : (double) Sorted_ranks[i] / Sorted_ranks[Sorted_ranks.length - 1];
+    }
+    
+    private void Append( int level, double value )
+    {
+        if( level >= Sizes.length )
+        {
+            int height = Sizes.length;
+            Levels = Arrays.copyOf( Levels, level + 1 );
+            Sizes = Arrays.copyOf( Sizes, level + 1 );
+            for(int h = height; h <= level; h++)
+                Levels[h] = new double[8];
+            
+            Capacity = 0;
+            for(int h = 0; h < Sizes.length; h++)
+                Capacity += LevelCapacity(h);
+        }
+        
+        if( Sizes[level] == Levels[level].length )
+            Levels[level] = Arrays.copyOf( Levels[level], Levels[level].length * 2 );
+        
+        Levels[level][ Sizes[level]++ ] = value;
+        Size++;
+    }
+    
+    /**
+     * Items a level may hold, shrinking by 2/3 per level below the top.
+     */
+    private int LevelCapacity( int level )
+    {
+        int depth = Sizes.length - level - 1;
+        return Math.max( 2, (int) Math.ceil( K * Math.pow( 2d / 3d, depth ) ) );
+    }
+    
+    /**
+     * Compact the lowest full level: sort it and promote every other item, picked by coin, to the level above.
+     */
+    private void Compress()
+    {
+        for(int h = 0; h < Sizes.length; h++)
+        {
+            if( Sizes[h] < LevelCapacity(h) )
+                continue;
+            
+            double[] items = Levels[h];
+            int n = Sizes[h];
+            Arrays.sort( items, 0, n );
+            
+            // An odd item stays on this level
+            int start = n % 2;
+            int offset = Coin.nextBoolean() ? 1 : 0;
+            
+            Sizes[h] = start;
+            Size -= n - start;
+            
+            for(int i = start + offset; i < n; i += 2)
+                Append( h + 1, items[i] );
+            
+            return;
+        }
+    }
+    
+    private void Sort()
+    {
+        if( Sorted_values != null )
+            return;
+        
+        // Sort items with their weights
+        double[] values = new double[Size];
+        long[] weights = new long[Size];
+        int n = 0;
+        
+        for(int h = 0; h < Sizes.length; h++)
+            for(int i = 0; i < Sizes[h]; i++)
+            {
+                values[n] = Levels[h][i];
+                weights[n] = 1L << h;
+                n++;
+            }
+        
+        int[] order = RadixSort.ArgSort( DoubleStorage.Wrap(values), n );
+        
+        Sorted_values = new double[n];
+        Sorted_ranks = new long[n];
+        long rank = 0;
+        
+        for(int i = 0; i < n; i++)
+        {
+            rank += weights[ order[i] ];
+            Sorted_values[i] = values[ order[i] ];
+            Sorted_ranks[i] = rank;
+        }
+    }
+    
+    /**
+     * Sketch of the first size rows, large columns are split in chunks sketched on the common pool.
+     */
+    public static QuantileSketch Compute( DoubleStorage data, int size )
+    {
+        if( size <= ColumnStatistics.CHUNK_SIZE )
+            return Compute( data, 0, size );
+        
+        ArrayList<ChunkTask> tasks = new ArrayList<>();
+        for(int from = 0; from < size; from += ColumnStatistics.CHUNK_SIZE)
+            tasks.add( new ChunkTask( data, from, Math.min( from + ColumnStatistics.CHUNK_SIZE, size ) ) );
+        
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        for(ChunkTask task : tasks)
+            pool.execute(task);
+        
+        // Merge in row order, the result does not depend on scheduling
+        QuantileSketch sketch = new QuantileSketch();
+        for(ChunkTask task : tasks)
+            sketch.Merge( task.join() );
+        
+        return sketch;
+    }
+    
+    /**
+     * Sketch of the rows [from, to).
+     */
+    public static QuantileSketch Compute( DoubleStorage data, int from, int to )
+    {
+        QuantileSketch sketch = new QuantileSketch( DEFAULT_K, from );
+        
+        for(int i = from; i < to; i++)
+            sketch.Add( data.Get(i) );
+        
+        return sketch;
+    }
+    
+    @SuppressWarnings("serial")
+    private static class ChunkTask extends RecursiveTask<QuantileSketch>
+    {
+        final DoubleStorage Data;
+        final int From;
+        final int To;
+        
+        ChunkTask( DoubleStorage data, int from, int to )
+        {
+            this.Data = data;
+            this.From = from;
+            this.To = to;
+        }
+        
+        @Override
+        protected QuantileSketch compute()
+        {
+            return Compute( Data, From, To );
+        }
+    }
+    
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Jacob Cornelius Mosebo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package nn1;
+
+import java.util.Arrays;
+
+/**
+ * Allocation-light argsort of doubles, LSD radix sort on the IEEE 754 bit pattern.
+ */
+public class RadixSort
+{
+    private static final int DIGIT_BITS = 11;
+    private static final int DIGIT_MASK = (1 << DIGIT_BITS) - 1;
+    
+    // Sort key of every NaN, after +Infinity
+    private static final long NAN_KEY = -1L;
+    
+    /**
+     * Row indices of the first size values in ascending order.
+     * Order is that of Double.compare (-0.0 before 0.0, NaN last) and stable, equal values keep row order.
+     * @param values
+     * @param size
+     * @return sorted row indices [size]
+     */
+    public static int[] ArgSort( DoubleStorage values, int size )
+    {
+        long[] keys = new long[size];
+        int[] order = new int[size];
+        
+        for(int i = 0; i < size; i++)
+        {
+            keys[i] = Key( values.Get(i) );
+            order[i] = i;
+        }
+        
+        if( size < 2 )
+            return order;
+        
+        long[] keys_tmp = new long[size];
+        int[] order_tmp = new int[size];
+        int[] offsets = new int[DIGIT_MASK + 1];
+        
+        for(int shift = 0; shift < 64; shift += DIGIT_BITS)
+        {
+            // Histogram
+            Arrays.fill( offsets, 0 );
+            for(int i = 0; i < size; i++)
+                offsets[ (int) (keys[i] >>> shift) & DIGIT_MASK ]++;
+            
+            // Digit shared by all keys, nothing to move
+            if( offsets[ (int) (keys[0] >>> shift) & DIGIT_MASK ] == size )
+                continue;
+            
+            // Bucket start offsets
+            int sum = 0;
+            for(int d = 0; d <= DIGIT_MASK; d++)
+            {
+                int count = offsets[d];
+                offsets[d] = sum;
+                sum += count;
+            }
+            
+            // Scatter, stable
+            for(int i = 0; i < size; i++)
+            {
+                int pos = offsets[ (int) (keys[i] >>> shift) & DIGIT_MASK ]++;
+                keys_tmp[pos] = keys[i];
+                order_tmp[pos] = order[i];
+            }
+            
+            long[] keys_swap = keys;
+            keys = keys_tmp;
+            keys_tmp = keys_swap;
+            
+            int[] order_swap = order;
+            order = order_tmp;
+            order_tmp = order_swap;
+        }
+        
+        return order;
+    }
+    
+    /**
+     * Map double to a long that sorts unsigned in Double.compare order.
+     */
+    static long Key( double value )
+    {
+        if( Double.isNaN(value) )
+            return NAN_KEY;
+        
+        long bits = Double.doubleToRawLongBits(value);
+        
+        // Negative: flip all bits to reverse their order, positive: flip sign bit to place above negatives
+        return bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+    }
+    
+}
@@ -23,10 +23,12 @@
  */
 package nn1;
 
+import java.io.IOException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  *
@@ -35,29 +37,96 @@ public class Table
 {
     public static final boolean DEV_MODE = false;
     
+    // Largest array the VMs allocate
+    static final long MAX_FLAT_CELLS = Integer.MAX_VALUE - 8;
+    
     // Columns : Names
     HashMap<String,Integer> Columns_NameToIdx;
     
-    // Columns : Indices and positions
-    HashMap<Integer,Integer[]> Columns_PosToIdx;
-    HashMap<Integer,Integer> Columns_IdxToPos;
+    // Columns : Indices and positions, arrays grow by capacity
+    int[] Columns_PosToIdx;
+    int[] Columns_PosToSub;
+    Column[] Columns_PosToColumn;
+    int[] Columns_IdxToPos;
     int TableWidth;
     
     // Columns : Data
     ArrayList<Column> Column_list;
     
+    // Storage mode of column data
+    StorageMode Storage;
+    
+    // Precision of materialized normalized column data
+    Precision NormPrecision;
+    
+    // Keep normalized column data instead of computing it on access
+    boolean NormMaterialized;
+    
+    // Keep quantile sketches, and normalize between quantiles (0 and 1 is min and max)
+    boolean QuantileSketches;
+    double Norm_q_low;
+    double Norm_q_high;
+    
+    // Normalized data set, built on first use and dropped when data changes
+    double[] Normalized_rc;
+    double[] Normalized_cr;
+    float[] Normalized_rc_f32;
+    float[] Normalized_cr_f32;
+    
+    // Rows with a missing value in any column, built on first use and dropped when data changes
+    BitSet Incomplete_rows;
+    
+    // Keep a sketch of X'X for principal components, built on first use and updated as rows are appended or changed
+    boolean GramSketches;
+    GramSketch Gram_sketch;
+    
+    // Data version, counts changes to the normalized data set and its storage, and the principal components computed last
+    long Version;
+    PrincipalComponents Principal_components;
+    
     // Column data types
     public enum ColumnDataType
     {
         Numeric, Datetime, Levels
     }
     
+    // Where column data is kept: Java arrays, direct buffers outside the heap, or memory-mapped temporary files
+    public enum StorageMode
+    {
+        Heap, Direct, Mapped
+    }
+    
+    // Precision of materialized normalized data and of models, raw values stay double
+    public enum Precision
+    {
+        Float64, Float32
+    }
+    
     public Table()
     {
+        this( StorageMode.Heap );
+    }
+    
+    /**
+     * @param storage where column data is kept, columns added later are moved into it
+     */
+    public Table( StorageMode storage )
+    {
+        Storage = storage;
+        NormPrecision = Precision.Float64;
+        NormMaterialized = false;
+        QuantileSketches = false;
+        GramSketches = false;
+        Version = 0;
+        Norm_q_low = 0d;
+        Norm_q_high = 1d;
+        
         Columns_NameToIdx = new HashMap<>();
         
-        Columns_PosToIdx = new HashMap<>();
-        Columns_IdxToPos = new HashMap<>();
+        Columns_PosToIdx = new int[16];
+        Columns_PosToSub = new int[16];
+        Columns_PosToColumn = new Column[16];
+        Columns_IdxToPos = new int[16];
         TableWidth = 0;        
         
         Column_list = new ArrayList<>();
@@ -72,108 +141,362 @@ public class Table
             case Numeric:
                 // Create
                 newCol = new Column_Number(Name, ColumnValues);
-                
-                // Add Column w data
-                Column_list.add( newCol );
-                
-                // Index and position
-                Columns_PosToIdx.put( TableWidth, new Integer[]{ Column_list.size() - 1, 0 } );
-                Columns_IdxToPos.put( Column_list.size() - 1, TableWidth);
-                TableWidth++;
-                
             break;
             case Datetime:
                 // Create
                 newCol = new Column_DateTime(Name, ColumnValues);
-                
-                // Add Column w data
-                Column_list.add( newCol );
-                
-                // Index and position
-                Columns_PosToIdx.put( TableWidth, new Integer[]{ Column_list.size() - 1, 0 } );
-                Columns_IdxToPos.put( Column_list.size() - 1, TableWidth);
-                TableWidth++;
-                
             break;
             case Levels:
                 // Create
                 newCol = new Column_Levels(Name, ColumnValues);
-                
-                // Add Column w data
-                Column_list.add( newCol );
-                                
-                // Index and position
-                for(int i = 0; i < newCol.GetWidth(); i++ )
-                {
-                    Columns_PosToIdx.put(TableWidth + i, new Integer[]{ Column_list.size() - 1, i} );
-                }
-                Columns_IdxToPos.put(Column_list.size() - 1, TableWidth);
-                
-                TableWidth += newCol.GetWidth();
-                
             break;
             default:
                 throw new AssertionError();
         }
         
-        // Add name
-        Columns_NameToIdx.put(Name, Column_list.size() - 1);
-        
+        AddColumn( newCol );
     }
     
     public void AddColumn( Column new_column ) 
     {
+        InvalidateNormalized();
+        
+        ApplySettings( new_column );
+        Gram_sketch = null;
+        
         // Add Column w data
         Column_list.add( new_column );
-
+        int column_idx = Column_list.size() - 1;
+        
+        AddPositions( new_column, column_idx );
+        
+        // Add name
+        Columns_NameToIdx.put(new_column.GetName(), column_idx);
+        
+    }
+    
+    private void ApplySettings( Column column )
+    {
+        column.SetStorage( Storage );
+        column.SetPrecision( NormPrecision );
+        column.SetMaterialized( NormMaterialized );
+        column.SetQuantileSketch( QuantileSketches );
+        column.SetNormalizationRange( Norm_q_low, Norm_q_high );
+    }
+    
+    /**
+     * Give the positions after the last column to a column.
+     */
+    private void AddPositions( Column new_column, int column_idx )
+    {
+        int width = new_column.GetWidth();
+        
+        // Grow index arrays
+        if( TableWidth + width > Columns_PosToIdx.length )
+        {
+            int capacity = Math.max( Columns_PosToIdx.length * 2, TableWidth + width );
+            Columns_PosToIdx = Arrays.copyOf( Columns_PosToIdx, capacity );
+            Columns_PosToSub = Arrays.copyOf( Columns_PosToSub, capacity );
+            Columns_PosToColumn = Arrays.copyOf( Columns_PosToColumn, capacity );
+        }
+        
+        if( column_idx >= Columns_IdxToPos.length )
+            Columns_IdxToPos = Arrays.copyOf( Columns_IdxToPos, Columns_IdxToPos.length * 2 );
+        
         // Index and position
-        for(int i = 0; i < new_column.GetWidth(); i++ )
+        for(int i = 0; i < width; i++ )
+        {
+            Columns_PosToIdx[TableWidth + i] = column_idx;
+            Columns_PosToSub[TableWidth + i] = i;
+            Columns_PosToColumn[TableWidth + i] = new_column;
+        }
+        Columns_IdxToPos[column_idx] = TableWidth;
+        
+        TableWidth += width;
+    }
+    
+    /**
+     * Append the rows of a table with the same columns, matched by name, such as the next batch read from a CSV file.
+     * Column statistics are updated from the new rows only, normalized values only move when a column range widens.
+     * A column holding nothing but missing values may have any type, a column of the table takes the type of the rows then.
+     * @param rows table with the new rows
+     * @throws IllegalArgumentException if the columns do not match, the table is then unchanged
+     */
+    public void AppendRows( Table rows )
+    {
+        if( rows.Column_list.size() != Column_list.size() )
+            throw new IllegalArgumentException("Rows have " + rows.Column_list.size() + " columns, table has " + Column_list.size());
+        
+        Column[] sources = new Column[ Column_list.size() ];
+        boolean[] retype = new boolean[ Column_list.size() ];
+        
+        for(int c = 0; c < sources.length; c++)
         {
-            Columns_PosToIdx.put(TableWidth + i, new Integer[]{ Column_list.size() - 1, i} );
+            Column col = Column_list.get(c);
+            Integer idx = rows.Columns_NameToIdx.get( col.GetName() );
+            
+            if( idx == null )
+                throw new IllegalArgumentException("Column missing from rows: " + col.GetName());
+            
+            sources[c] = rows.Column_list.get(idx);
+            
+            if( sources[c].GetType() != col.GetType() && sources[c].GetMissing().cardinality() < sources[c].GetRowCount() )
+            {
+                if( col.GetMissing().cardinality() < col.GetRowCount() )
+                    throw new IllegalArgumentException("Column " + col.GetName() + " is " + col.GetType() + ", rows have " + sources[c].GetType());
+                
+                retype[c] = true;
+            }
         }
-        Columns_IdxToPos.put(Column_list.size() - 1, TableWidth);
         
-        TableWidth += new_column.GetWidth();
+        InvalidateNormalized();
         
-        // Add name
-        Columns_NameToIdx.put(new_column.GetName(), Column_list.size() - 1);
+        int row_count = (Column_list.isEmpty() ? 0 : GetRowCount());
+        boolean retyped = false;
         
+        // Empty columns, such as those read from a batch without values, get the type of the rows
+        for(int c = 0; c < sources.length; c++)
+            if( retype[c] )
+            {
+                Column empty = EmptyColumn( sources[c].GetType(), Column_list.get(c).GetName(), Column_list.get(c).GetRowCount() );
+                ApplySettings( empty );
+                Column_list.set( c, empty );
+                retyped = true;
+            }
+        
+        int width = 0;
+        for(int c = 0; c < sources.length; c++)
+        {
+            Column_list.get(c).AppendRows( sources[c] );
+            width += Column_list.get(c).GetWidth();
+        }
+        
+        // Sketch takes the new rows, unless positions change
+        if( Gram_sketch != null )
+        {
+            if( retyped || width != TableWidth )
+                Gram_sketch = null;
+            else
+                Gram_sketch.Merge( GramSketch.Compute( this, row_count, GetRowCount(), Gram_sketch.Shift, ForkJoinPool.commonPool() ) );
+        }
+        
+        // Retyped columns and new levels change the positions
+        TableWidth = 0;
+        for(int c = 0; c < Column_list.size(); c++)
+            AddPositions( Column_list.get(c), c );
+    }
+    
+    // Column of a type with all values missing
+    private static Column EmptyColumn( ColumnDataType type, String name, int rows )
+    {
+        switch( type )
+        {
+            case Numeric:
+                double[] values = new double[rows];
+                Arrays.fill( values, Double.NaN );
+                return new Column_Number( name, values, rows );
+            case Datetime:
+                double[] epochSeconds = new double[rows];
+                Arrays.fill( epochSeconds, Double.NaN );
+                return new Column_DateTime( name, epochSeconds, rows );
+            case Levels:
+                int[] codes = new int[rows];
+                Arrays.fill( codes, -1 );
+                return new Column_Levels( name, new String[0], codes, rows );
+            default:
+                throw new AssertionError();
+        }
     }
     
     public void SetCellValue( int position, int row, double value )
     {
-        Integer[] ColumnIdx = Columns_PosToIdx.get(position);
-        Column_list.get( ColumnIdx[0] ).SetValue_Numeric(row, ColumnIdx[1], value);
+        InvalidateNormalized();
+        
+        if( Gram_sketch != null )
+        {
+            double[] values = Gram_sketch.Row_buffer;
+            GetRowValues( row, values );
+            Gram_sketch.Remove( values );
+            
+            Columns_PosToColumn[position].SetValue_Numeric(row, Columns_PosToSub[position], value);
+            
+            GetRowValues( row, values );
+            Gram_sketch.Add( values );
+            return;
+        }
+        
+        Columns_PosToColumn[position].SetValue_Numeric(row, Columns_PosToSub[position], value);
+    }
+    
+    // Raw value per position of a row, NaN for missing
+    void GetRowValues( int row, double[] values )
+    {
+        for(int p = 0; p < TableWidth; p++)
+            values[p] = Columns_PosToColumn[p].GetDouble_Numeric( row, Columns_PosToSub[p] );
     }
     
     public double GetCellValueNumeric( int position, int row )
     {
-        Integer[] ColumnIdx = Columns_PosToIdx.get(position);
-        return Column_list.get( ColumnIdx[0] ).GetValue_Numeric(row, ColumnIdx[1]);
+        return Columns_PosToColumn[position].GetDouble_Numeric(row, Columns_PosToSub[position]);
     }
     
     public double GetCellValueNormalized( int position, int row )
     {
-        Integer[] ColumnIdx = Columns_PosToIdx.get(position);
-        return Column_list.get( ColumnIdx[0] ).GetValue_Normalized(row, ColumnIdx[1]);
+        return Columns_PosToColumn[position].GetDouble_Normalized(row, Columns_PosToSub[position]);
     }
     
     public double DenormalizeColumnValue( int position, double value)
     {
-        Integer[] ColumnIdx = Columns_PosToIdx.get(position);
-        return Column_list.get( ColumnIdx[0] ).DenormalizeValue(value);
+        return Columns_PosToColumn[position].DenormalizeValue(value);
     }
     
     public int GetPositionByColumnName(String columnName)
     {
         int columnIdx = Columns_NameToIdx.get(columnName);
-        return Columns_IdxToPos.get(columnIdx);
+        return Columns_IdxToPos[columnIdx];
+    }
+    
+    /**
+     * Position of a position within a column, as it is now: new levels of a column move the positions after it.
+     * @throws IllegalStateException if the column is no longer that wide, such as after it took another type
+     */
+    int GetPosition( int columnIdx, int sub )
+    {
+        if( sub >= Column_list.get(columnIdx).GetWidth() )
+            throw new IllegalStateException("Column " + Column_list.get(columnIdx).GetName() + " has no position " + sub + " any more");
+        
+        return Columns_IdxToPos[columnIdx] + sub;
     }
     
     public String GetColumnNameByPosition(int position)
     {
-        Integer[] ColumnIdx = Columns_PosToIdx.get(position);
-        return Column_list.get( ColumnIdx[0] ).GetName();
+        return Columns_PosToColumn[position].GetName();
+    }
+    
+    public StorageMode GetStorage()
+    {
+        return Storage;
+    }
+    
+    /**
+     * Move all column data into storage mode, columns added later follow.
+     * @param storage where column data is kept
+     */
+    public void SetStorage( StorageMode storage )
+    {
+        Storage = storage;
+        
+        for(Column col : Column_list)
+            col.SetStorage( storage );
+        
+        // Values stay, results kept for the data are computed again from the new storage
+        Version++;
+    }
+    
+    public Precision GetPrecision()
+    {
+        return NormPrecision;
+    }
+    
+    /**
+     * Keep materialized normalized column data in precision, Float32 halves its memory. Raw values stay double, so
+     * without SetMaterialized the setting saves no table memory. Float32 models and the _f32 data set exports take
+     * float data whatever it is, their precision is set on the model.
+     * @param precision precision of normalized data
+     */
+    public void SetPrecision( Precision precision )
+    {
+        NormPrecision = precision;
+        
+        for(Column col : Column_list)
+            col.SetPrecision( precision );
+        
+        InvalidateNormalized();
+    }
+    
+    public boolean GetMaterialized()
+    {
+        return NormMaterialized;
+    }
+    
+    /**
+     * Normalized values are computed on access from raw values and the column range.
+     * Materializing keeps a normalized copy of each column for hot loops reading cells one by one, at the cost of memory.
+     * @param materialized keep normalized column data
+     */
+    public void SetMaterialized( boolean materialized )
+    {
+        NormMaterialized = materialized;
+        
+        for(Column col : Column_list)
+            col.SetMaterialized( materialized );
+        
+        Version++;
+    }
+    
+    public boolean GetQuantileSketches()
+    {
+        return QuantileSketches;
+    }
+    
+    /**
+     * Keep a KLL quantile sketch per numeric column, GetColumnQuantile then answers from the sketch
+     * (rank error around 1%) instead of selecting over the column.
+     * @param enabled keep quantile sketches
+     */
+    public void SetQuantileSketches( boolean enabled )
+    {
+        QuantileSketches = enabled;
+        
+        for(Column col : Column_list)
+            col.SetQuantileSketch( enabled );
+    }
+    
+    /**
+     * Normalize numeric columns between two quantiles instead of min and max, values outside are clipped to 0 and 1.
+     * Keeps outliers from squashing the rest of a column into a small range. The quantiles come from the column sketches.
+     * @param q_low lower quantile, 0 for the minimum (0.01 for the 1st percentile)
+     * @param q_high upper quantile, 1 for the maximum (0.99 for the 99th percentile)
+     */
+    public void SetNormalizationRange( double q_low, double q_high )
+    {
+        if( !(q_low >= 0d && q_low < q_high && q_high <= 1d) )
+            throw new IllegalArgumentException("Normalization quantiles must satisfy 0 <= low < high <= 1: " + q_low + ", " + q_high);
+        
+        Norm_q_low = q_low;
+        Norm_q_high = q_high;
+        
+        for(Column col : Column_list)
+            col.SetNormalizationRange( q_low, q_high );
+        
+        InvalidateNormalized();
+    }
+    
+    public boolean GetGramSketch()
+    {
+        return GramSketches;
+    }
+    
+    /**
+     * Keep a sketch of X'X of the normalized data, so principal components of a table that grows by appended rows
+     * are found without reading the earlier rows again. Used by GetPCs unless the method is Randomized or
+     * the normalization range is between quantiles, where normalization is not affine.
+     * @param enabled false drops the sketch
+     */
+    public void SetGramSketch( boolean enabled )
+    {
+        GramSketches = enabled;
+        
+        if( !enabled )
+            Gram_sketch = null;
+    }
+    
+    /**
+     * Data version, changes with every change to the values, columns, normalization or storage settings of the table.
+     */
+    public long GetVersion()
+    {
+        return Version;
     }
     
     public int GetTableWidth()
@@ -186,42 +509,93 @@ public class Table
         return Column_list.get(0).GetRowCount();
     }
     
+    /**
+     * View of all rows and positions, the data is shared with the table.
+     */
+    public TableView GetView()
+    {
+        return new TableView( this, 0, GetRowCount(), null, Arrays.copyOf( Columns_PosToIdx, TableWidth ), Arrays.copyOf( Columns_PosToSub, TableWidth ) );
+    }
+    
+    /**
+     * View of a range of rows, such as a training or test split.
+     * @param from first row
+     * @param to row after the last
+     */
+    public TableView SelectRows( int from, int to )
+    {
+        return GetView().SelectRows( from, to );
+    }
+    
+    /**
+     * View of a subset of rows, such as a random sample.
+     */
+    public TableView SelectRows( int[] rows )
+    {
+        return GetView().SelectRows( rows );
+    }
+    
+    /**
+     * View of a subset of positions, such as the predictors and response of a model.
+     */
+    public TableView SelectPositions( int[] positions )
+    {
+        return GetView().SelectPositions( positions );
+    }
+    
     public Double[] GetPositionRange(int position)
     {
-        Integer[] ColumnIdx = Columns_PosToIdx.get(position);
-        return new Double[] { Column_list.get(ColumnIdx[0]).GetValue_Min() , Column_list.get(ColumnIdx[0]).GetValue_Max() };
+        return new Double[] { Columns_PosToColumn[position].GetValue_Min() , Columns_PosToColumn[position].GetValue_Max() };
     }
     
     public double GetColumnAverage(int position)
     {
-        Integer[] ColumnIdx = Columns_PosToIdx.get(position);
-        return Column_list.get( ColumnIdx[0] ).GetValue_Avg( ColumnIdx[1] );
+        return Columns_PosToColumn[position].GetValue_Avg( Columns_PosToSub[position] );
     }
     
     public double GetColumnAverageNormalized(int position)
     {
-        Integer[] ColumnIdx = Columns_PosToIdx.get(position);
-        double avg = Column_list.get( ColumnIdx[0] ).GetValue_Avg( ColumnIdx[1] );
-        return Column_list.get( ColumnIdx[0] ).NormalizeValue(avg);
+        double avg = Columns_PosToColumn[position].GetValue_Avg( Columns_PosToSub[position] );
+        return Columns_PosToColumn[position].NormalizeValue(avg);
     }
     
-    public int GetColumnMedianOrderIndex(int position)
+    /**
+     * Median of a column, without sorting the column.
+     * @param position
+     * @return lower median of the non-missing values
+     */
+    public double GetColumnMedian(int position)
     {
-        Integer[] ColumnIdx = Columns_PosToIdx.get(position);
-        return Column_list.get( ColumnIdx[0] ).GetRowIndex_Median( ColumnIdx[1] );
+        return Columns_PosToColumn[position].GetValue_Median( Columns_PosToSub[position] );
     }
     
-    public Double[][] GetNormalizedDataSetAsArray_cr()
+    /**
+     * Quantile of a column, approximate if quantile sketches are kept, else exact.
+     * @param position
+     * @param q fraction of values below the result, 0.5 for the median
+     */
+    public double GetColumnQuantile(int position, double q)
+    {
+        return Columns_PosToColumn[position].GetValue_Quantile( Columns_PosToSub[position], q );
+    }
+    
+    /**
+     * Row holding the lower median of position, the value GetColumnMedian returns. A row of the table, not a place
+     * in the sort order.
+     * @return row, -1 if the position has no values
+     */
+    public int GetColumnMedianRow(int position)
+    {
+        return Columns_PosToColumn[position].GetRowIndex_Median( Columns_PosToSub[position] );
+    }
+    
+    // Read per column, not through the flat arrays, so tables of more cells than one array holds are exported too
+    public double[][] GetNormalizedDataSetAsArray_cr()
     {
-        Double[][] DataSet_Norm = new Double[TableWidth][GetRowCount()];
+        double[][] DataSet_Norm = new double[TableWidth][];
         
         for(int c = 0; c < TableWidth; c++)
-        {
-            Integer[] ColumnIdx = Columns_PosToIdx.get(c);
-            Column col = Column_list.get( ColumnIdx[0] );
-            
-            DataSet_Norm[c] = col.GetValues_Normalized( ColumnIdx[1] );
-        }
+            DataSet_Norm[c] = Columns_PosToColumn[c].GetDoubles_Normalized( Columns_PosToSub[c] );
         
         return DataSet_Norm;
     }
@@ -233,20 +607,214 @@ public class Table
         
         for(int c = 0; c < TableWidth; c++)
         {
-            Integer[] ColumnIdx = Columns_PosToIdx.get(c);
-            Column col = Column_list.get( ColumnIdx[0] );
+            Column col = Columns_PosToColumn[c];
+            int sub = Columns_PosToSub[c];
             
             for(int r = 0; r < row_count; r++)
             {
-                Double val = col.GetValue_Normalized( r, ColumnIdx[1] );
-                DataSet_Norm[r][c] = (val.isNaN() ? 0d : val);
+                double val = col.GetDouble_Normalized( r, sub );
+                DataSet_Norm[r][c] = (Double.isNaN(val) ? 0d : val);
             }
-            
         }
         
         return DataSet_Norm;
     }
     
+    // Cells of the flat data set arrays, which index by int
+    int GetFlatSize()
+    {
+        long cells = (long) GetRowCount() * TableWidth;
+        
+        if( cells > MAX_FLAT_CELLS )
+            throw new IllegalStateException("Table of " + GetRowCount() + " rows by " + TableWidth + " positions has " + cells
+                    + " cells, more than one array holds; read it per column, by GetNormalizedDataSetAsArray_rc / _cr or a TableView");
+        
+        return (int) cells;
+    }
+    
+    /**
+     * Normalized data set as one row-major array, cell (r, c) is at r * width + c. Missing values are 0.
+     * The array is shared between callers and must not be modified, it is rebuilt after the table changes.
+     * It is kept on the heap whatever the storage mode of the columns.
+     * @return normalized data [row count * table width]
+     */
+    public double[] GetNormalizedData_rc()
+    {
+        double[] data = Normalized_rc;
+        
+        if( data == null )
+        {
+            int row_count = GetRowCount();
+            data = new double[ GetFlatSize() ];
+            
+            for(int c = 0; c < TableWidth; c++)
+            {
+                Column col = Columns_PosToColumn[c];
+                int sub = Columns_PosToSub[c];
+                
+                if( col.GetMissing().isEmpty() )
+                {
+                    for(int r = 0; r < row_count; r++)
+                        data[r * TableWidth + c] = col.GetDouble_Normalized( r, sub );
+                    continue;
+                }
+                
+                for(int r = 0; r < row_count; r++)
+                {
+                    double val = col.GetDouble_Normalized( r, sub );
+                    data[r * TableWidth + c] = (Double.isNaN(val) ? 0d : val);
+                }
+            }
+            
+            Normalized_rc = data;
+        }
+        
+        return data;
+    }
+    
+    // Normalized rows from .. to - 1 into buffer, row-major as GetNormalizedData_rc, read column by column
+    void GetNormalizedRows( int from, int to, double[] buffer )
+    {
+        for(int c = 0; c < TableWidth; c++)
+        {
+            Column col = Columns_PosToColumn[c];
+            int sub = Columns_PosToSub[c];
+            
+            for(int r = from; r < to; r++)
+            {
+                double val = col.GetDouble_Normalized( r, sub );
+                buffer[(r - from) * TableWidth + c] = (Double.isNaN(val) ? 0d : val);
+            }
+        }
+    }
+    
+    /**
+     * Normalized data set as one column-major array, cell (r, c) is at c * row count + r. Missing values are NaN.
+     * The array is shared between callers and must not be modified, it is rebuilt after the table changes.
+     * It is kept on the heap whatever the storage mode of the columns.
+     * @return normalized data [table width * row count]
+     */
+    public double[] GetNormalizedData_cr()
+    {
+        double[] data = Normalized_cr;
+        
+        if( data == null )
+        {
+            int row_count = GetRowCount();
+            data = new double[ GetFlatSize() ];
+            
+            for(int c = 0; c < TableWidth; c++)
+            {
+                double[] values = Columns_PosToColumn[c].GetDoubles_Normalized( Columns_PosToSub[c] );
+                System.arraycopy( values, 0, data, c * row_count, row_count );
+            }
+            
+            Normalized_cr = data;
+        }
+        
+        return data;
+    }
+    
+    /**
+     * Float version of GetNormalizedData_rc, for Float32 models. Missing values are 0.
+     * The array is shared between callers and must not be modified, it is rebuilt after the table changes.
+     * @return normalized data [row count * table width]
+     */
+    public float[] GetNormalizedData_rc_f32()
+    {
+        float[] data = Normalized_rc_f32;
+        
+        if( data == null )
+        {
+            int row_count = GetRowCount();
+            data = new float[ GetFlatSize() ];
+            
+            for(int c = 0; c < TableWidth; c++)
+            {
+                Column col = Columns_PosToColumn[c];
+                int sub = Columns_PosToSub[c];
+                
+                if( col.GetMissing().isEmpty() )
+                {
+                    for(int r = 0; r < row_count; r++)
+                        data[r * TableWidth + c] = (float) col.GetDouble_Normalized( r, sub );
+                    continue;
+                }
+                
+                for(int r = 0; r < row_count; r++)
+                {
+                    double val = col.GetDouble_Normalized( r, sub );
+                    data[r * TableWidth + c] = (Double.isNaN(val) ? 0f : (float) val);
+                }
+            }
+            
+            Normalized_rc_f32 = data;
+        }
+        
+        return data;
+    }
+    
+    /**
+     * Float version of GetNormalizedData_cr, for Float32 models. Missing values are NaN.
+     * The array is shared between callers and must not be modified, it is rebuilt after the table changes.
+     * @return normalized data [table width * row count]
+     */
+    public float[] GetNormalizedData_cr_f32()
+    {
+        float[] data = Normalized_cr_f32;
+        
+        if( data == null )
+        {
+            int row_count = GetRowCount();
+            data = new float[ GetFlatSize() ];
+            
+            for(int c = 0; c < TableWidth; c++)
+            {
+                Column col = Columns_PosToColumn[c];
+                int sub = Columns_PosToSub[c];
+                
+                for(int r = 0; r < row_count; r++)
+                    data[c * row_count + r] = (float) col.GetDouble_Normalized( r, sub );
+            }
+            
+            Normalized_cr_f32 = data;
+        }
+        
+        return data;
+    }
+    
+    /**
+     * Rows with a missing value in any column. Rows not in the set are complete and need no NaN checks.
+     * The set is shared between callers and must not be modified, it is rebuilt after the table changes.
+     * @return incomplete rows
+     */
+    public BitSet GetIncompleteRows()
+    {
+        BitSet rows = Incomplete_rows;
+        
+        if( rows == null )
+        {
+            rows = new BitSet( GetRowCount() );
+            
+            for(Column col : Column_list)
+                rows.or( col.GetMissing() );
+            
+            Incomplete_rows = rows;
+        }
+        
+        return rows;
+    }
+    
+    private void InvalidateNormalized()
+    {
+        Version++;
+        Normalized_rc = null;
+        Normalized_cr = null;
+        Normalized_rc_f32 = null;
+        Normalized_cr_f32 = null;
+        Incomplete_rows = null;
+    }
+    
         
     public String[] ToCSVLines( boolean[] columnMap )
     {
@@ -406,178 +974,139 @@ public class Table
     }
         
     /**
-     * Calculate top [amount] Principal Components of normalised data [0:1].
-     * @param tolerance value if average PC value convergence is below, then stop. (~0.00001)
-     * @param amount number of PC's to generate. (1 : table width)
-     * @return list of top PC's
+     * Save table in the native binary columnar format, see TableFile.
+     * @param fileName file to write
+     * @throws IOException 
+     */
+    public void SaveBinary(String fileName) throws IOException
+    {
+        TableFile.Save(this, fileName);
+    }
+    
+    /**
+     * Load table saved by SaveBinary, no parsing or Compile is done.
+     * @param fileName file to read
+     * @return loaded table
+     * @throws IOException 
+     */
+    public static Table LoadBinary(String fileName) throws IOException
+    {
+        return TableFile.Load(fileName);
+    }
+    
+    /**
+     * Load table saved by SaveBinary into storage mode, Mapped works on the file itself without copying.
+     * @param fileName file to read
+     * @param storage where column data is kept
+     * @return loaded table
+     * @throws IOException 
+     */
+    public static Table LoadBinary(String fileName, StorageMode storage) throws IOException
+    {
+        return TableFile.Load(fileName, storage);
+    }
+    
+    /**
+     * Leading principal components of the normalized data, missing values are 0 and the data is not centered.
+     * @param tolerance convergence of the power iteration, mean absolute change of a component
+     * @param amount number of components
+     * @return unit loadings per component [table width]
      */
     public ArrayList<double[]> GetPCs(double tolerance, int amount)
     {
-        // Calculate n PC's by NIPALS method.
-        
-        ArrayList<double[]> pcs = new ArrayList<>();
+        return GetPCs( tolerance, amount, PrincipalComponents.Method.Auto );
+    }
+    
+    /**
+     * Leading principal components of the normalized data, missing values are 0 and the data is not centered.
+     * @param tolerance convergence of the power iteration, mean absolute change of a component
+     * @param amount number of components
+     * @param method Covariance forms X'X in one pass, Randomized reads the data a few times without it, Auto picks by width
+     * @return unit loadings per component [table width]
+     */
+    public ArrayList<double[]> GetPCs(double tolerance, int amount, PrincipalComponents.Method method)
+    {
+        return GetPrincipalComponents( tolerance, amount, method ).GetLoadings();
+    }
+    
+    /**
+     * Leading principal components of the normalized data with their eigenvalues, explained variance and scores.
+     * The result is kept and returned again for the same request until the table data changes.
+     * Without a normalized data set already on the heap X'X is taken from the columns a block of rows at a time, whatever
+     * the method, the data set is not copied and tables larger than one array work.
+     * @param tolerance convergence of the power iteration, mean absolute change of a component
+     * @param amount number of components
+     * @param method Covariance forms X'X in one pass, Randomized reads the data a few times without it, Auto picks by width
+     */
+    public PrincipalComponents GetPrincipalComponents(double tolerance, int amount, PrincipalComponents.Method method)
+    {
+        PrincipalComponents pcs = Principal_components;
         
-        Double[] x = new Double[TableWidth];
+        if( pcs != null && pcs.Matches( Version, tolerance, amount, method ) )
+            return pcs;
         
-        int max_iter = 1000;
-        int row_count = GetRowCount();
+        double[] eigenvalues = new double[amount];
+        ArrayList<double[]> loadings;
+        double total;
         
-        ArrayList<double[]> loadings_def = new ArrayList<>();
-        ArrayList<double[]> scores_def = new ArrayList<>();
-        
-        double loadings[] = new double[TableWidth];
-        double loadings_len;
-        double loadings_last[] = new double[TableWidth];
-        double scores[] = new double[row_count];
-        double scores_len;
-        double scores_last[] = new double[row_count];
-        //double delta[] = new double[row_count];
-        //double delta_len;
-        //double delta_len_last = 0d;
-        double delta_loadings;
-        double delta_loadings_last = 1d;
-        
-        // for each PC
-        for(int a = 0; a < amount; a++)
+        if( GramSketches && method != PrincipalComponents.Method.Randomized && Norm_q_low == 0d && Norm_q_high == 1d )
         {
-            // Initialize random vector of width: row count, length: 1
-            for(int i = 0; i < scores.length; i++)
-                //scores[i] = Math.random();
-                //scores[i] = 0.5d;
-                scores[i] = GetCellValueNormalized( 0 , i );
-
-            scores_len = 0;
-            for (int c = 0; c < scores.length; c++)
-                scores_len = scores[c] * scores[c];
-            scores_len = Math.pow(scores_len, 0.5 );
-
-            for(int i = 0; i < scores.length; i++)
-                scores[i] = scores[i] / scores_len;
-            
-            // power iterate
-            boolean stop = false;
-            int iterations = 0;
+            double[] gram = GetGramMatrix();
+            loadings = PrincipalComponents.Eigenvectors( gram, TableWidth, tolerance, amount, eigenvalues );
+            total = PrincipalComponents.Trace( gram, TableWidth );
+        }
+        else if( Normalized_rc == null )
+        {
+            // Read a block of rows at a time into X'X, never copied whole to the heap
+            double[] gram = PrincipalComponents.GramMatrix( this, ForkJoinPool.commonPool() );
+            loadings = PrincipalComponents.Eigenvectors( gram, TableWidth, tolerance, amount, eigenvalues );
+            total = PrincipalComponents.Trace( gram, TableWidth );
+        }
+        else
+        {
+            double[] data = Normalized_rc;
+            loadings = PrincipalComponents.Compute( data, TableWidth, tolerance, amount, method, eigenvalues );
             
-            //System.out.println("\tpc : " + (a+1));
+            total = 0d;
+            for(int i = 0; i < data.length; i++)
+                total += data[i] * data[i];
+        }
+        
+        pcs = new PrincipalComponents( this, Version, tolerance, amount, method, loadings, eigenvalues, total );
+        Principal_components = pcs;
+        
+        return pcs;
+    }
+    
+    // X'X of the normalized data from the sketch, normalization is a x + b from the current column ranges
+    double[] GetGramMatrix()
+    {
+        double[] scale = new double[TableWidth];
+        double[] offset = new double[TableWidth];
+        
+        for(int p = 0; p < TableWidth; p++)
+        {
+            double low = Columns_PosToColumn[p].DenormalizeValue( 0d );
+            double range = Columns_PosToColumn[p].DenormalizeValue( 1d ) - low;
             
-            while(!stop)
+            // No range normalizes to NaN, which the data set has as 0
+            if( range > 0d && !Double.isInfinite( range ) )
             {
-                // Save old loadings
-                for(int c = 0; c < TableWidth; c++)
-                    loadings_last[c] = loadings[c];
-                
-                // loadings: p = X't/t't  
-                // X't
-                Arrays.fill(loadings, 0d);
-                for(int r = 0; r < row_count; r++)
-                {
-                    for(int c = 0; c < TableWidth; c++)
-                    {
-                        // Retrieve data point, if NaN -> 0
-                        x[c] = GetCellValueNormalized( c, r);
-                        if(x[c].isNaN())
-                            x[c] = 0d;
-
-                        // Deflate data with old pc's
-                        // x = x - (th %*% t(ph))
-                        for(int d = 0; d < a; d++)
-                            x[c] = x[c] - ( loadings_def.get(d)[c] * scores_def.get(d)[r] );
-
-                        //  if( c == 4 && r == 7) System.out.println("\ta" + d + " i" + iterations + "\tp:" + loadings_def.get(d)[c] + ", t:"+ scores_def.get(d)[r] + "\tx:" + x[c]);
-                    }
-                    
-                    for(int c = 0; c < TableWidth; c++)
-                        loadings[c] += x[c] * scores[r];
-                    
-                }
-                
-                // 1 / t't
-                scores_len = 0d;
-                for(int c = 0; c < row_count; c++)
-                    scores_len += scores[c] * scores[c];
-                
-                for(int c = 0; c < TableWidth; c++)
-                {
-                    loadings[c] += loadings[c] / scores_len;
-                }
-                
-                
-                // Normalize loadings
-                loadings_len = 0d;
-                for(int c = 0; c < TableWidth; c++)
-                    loadings_len += loadings[c] * loadings[c];
-                loadings_len = Math.pow( loadings_len, 0.5d );
-                
-                for(int c = 0; c < TableWidth; c++)
-                    loadings[c] = loadings[c] / loadings_len;
-                
-                // Save scores
-                for(int r = 0; r < row_count; r++)
-                    scores_last[r] += scores[r];
-                
-                // Scores : th = x %*% ph / sum(ph*ph)
-                Arrays.fill(scores, 0d);
-                for(int r = 0; r < row_count; r++)
-                {
-                    for(int c = 0; c < TableWidth; c++)
-                    {
-                        // Retrieve data point, if NaN -> 0
-                        x[c] = GetCellValueNormalized( c, r);
-                        if(x[c].isNaN())
-                            x[c] = 0d;
-                        
-                        // Deflate data with old pc's
-                        // x = x - (th %*% t(ph))
-                        for(int d = 0; d < loadings_def.size(); d++)
-                            x[c] = x[c] - ( loadings_def.get(d)[c] * scores_def.get(d)[r] );
-                    }
-                    
-                    for(int c = 0; c < TableWidth; c++)
-                        scores[r] += x[c] * loadings[c];
-                    
-                }
-                                
-                /*
-                // Check convergence of scores
-                for(int r = 0; r < row_count; r++)
-                    delta[r] = scores[r] - scores_last[r];
-                delta_len = 0d;
-                for(int r = 0; r < row_count; r++)
-                    delta_len += delta[r] * delta[r];
-                
-                delta_len = 1 / Math.pow( delta_len, 0.5 );
-                */
-                
-                // Check convergence of loadings
-                delta_loadings = 0d;
-                for(int c = 0; c < TableWidth; c++)
-                    delta_loadings += Math.abs(loadings[c] - loadings_last[c]);
-                delta_loadings = delta_loadings / (double) TableWidth;
-               
-                //System.out.println("\tPC" + a + "\tIter: " + iterations + "\tconvergence: " + delta_loadings + "\tload0:" + loadings[0]);
-                
-                // Stop if convergence is too low, if zero convergence is happening, or max iterations is reached
-                if( delta_loadings < tolerance || delta_loadings == delta_loadings_last || iterations > max_iter)
-                    stop = true;
-                
-                delta_loadings_last = delta_loadings;
-                //delta_len_last = delta_len;
-                iterations++;
-                                
+                scale[p] = 1d / range;
+                offset[p] = -low / range;
             }
-            
-            // Save PC
-            pcs.add( Arrays.copyOf(loadings, TableWidth) );
-            
-            // Deflate variation by PC, save loadings and scores
-            // x <- x - (th %*% t(ph))
-            loadings_def.add( Arrays.copyOf(loadings, TableWidth) );
-            scores_def.add( Arrays.copyOf(scores, row_count) );
-            
         }
         
-        return pcs;
+        if( Gram_sketch == null )
+        {
+            double[] shift = new double[TableWidth];
+            for(int p = 0; p < TableWidth; p++)
+                shift[p] = (scale[p] != 0d ? Columns_PosToColumn[p].DenormalizeValue( 0d ) : 0d);
+            
+            Gram_sketch = GramSketch.Compute( this, 0, GetRowCount(), shift, ForkJoinPool.commonPool() );
+        }
         
+        return Gram_sketch.GetGramMatrix( scale, offset );
     }
     
     
@@ -0,0 +1,459 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Jacob Cornelius Mosebo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package nn1;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Native binary columnar table file.
+ *
+ * Layout, all little-endian:
+ *   header : magic, version, column count, table settings (normalization quantiles, sketches, precision, materialized),
+ *            then per column its name, type, row count, compiled statistics (levels, their row counts and the level cap
+ *            for Levels) and the offset of its data block
+ *   blocks : per column, 8 byte aligned
+ *            Numeric, Datetime : raw double[rows], sort index int[rows] if it was built
+ *            Levels            : level code int[rows] (-1 for none)
+ *
+ * Loading maps the file and copies the blocks in bulk, neither parsing nor Compile is needed.
+ * Saving writes a temporary file next to the target and moves it over, a table mapped from the target keeps its data.
+ */
+public class TableFile
+{
+    static final byte[] MAGIC = "NN1TABLE".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 5;
+    
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    
+    //<editor-fold defaultstate="collapsed" desc="Save">
+    
+    public static void Save(Table table, String fileName) throws IOException
+    {
+        int column_count = table.Column_list.size();
+        
+        // Header, with data offsets
+        long[] offsets = new long[column_count];
+        ByteBuffer header = WriteHeader(table, offsets);
+        
+        long offset = Align( header.limit() );
+        for(int c = 0; c < column_count; c++)
+        {
+            offsets[c] = offset;
+            offset = Align( offset + BlockSize( table.Column_list.get(c) ) );
+        }
+        
+        header = WriteHeader(table, offsets);
+        
+        // Never truncate the target, it may be mapped by a loaded table
+        Path target = new File(fileName).getAbsoluteFile().toPath();
+        Path temp = Files.createTempFile( target.getParent(), target.getFileName().toString(), ".tmp" );
+        boolean moved = false;
+        
+        try
+        {
+            WriteFile( temp, header, offsets, table );
+            Files.move( temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            moved = true;
+        }
+        finally
+        {
+            if( !moved )
+                Files.deleteIfExists( temp );
+        }
+    }
+    
+    private static void WriteFile(Path path, ByteBuffer header, long[] offsets, Table table) throws IOException
+    {
+        int column_count = table.Column_list.size();
+        
+        try( FileChannel channel = FileChannel.open( path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) )
+        {
+            while( header.hasRemaining() )
+                channel.write(header);
+            
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            
+            for(int c = 0; c < column_count; c++)
+            {
+                channel.position( offsets[c] );
+                WriteBlock( channel, buffer, table.Column_list.get(c) );
+                Flush( channel, buffer );
+            }
+        }
+    }
+    
+    private static ByteBuffer WriteHeader(Table table, long[] offsets)
+    {
+        int size = 96;
+        for(Column col : table.Column_list)
+        {
+            size += 96 + col.GetName().length() * 4;
+            
+            if( col.GetType() == Table.ColumnDataType.Levels )
+                for(String level : ((Column_Levels) col).GetLevels())
+                    size += 32 + level.length() * 4;
+        }
+        
+        ByteBuffer header = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        
+        header.put( MAGIC );
+        header.putInt( VERSION );
+        header.putInt( table.Column_list.size() );
+        
+        header.putDouble( table.Norm_q_low );
+        header.putDouble( table.Norm_q_high );
+        header.putInt( table.QuantileSketches ? 1 : 0 );
+        header.putInt( table.GramSketches ? 1 : 0 );
+        header.putInt( table.NormPrecision.ordinal() );
+        header.putInt( table.NormMaterialized ? 1 : 0 );
+        
+        for(int c = 0; c < table.Column_list.size(); c++)
+        {
+            Column col = table.Column_list.get(c);
+            
+            PutString( header, col.GetName() );
+            header.putInt( col.GetType().ordinal() );
+            header.putInt( col.GetRowCount() );
+            
+            switch( col.GetType() )
+            {
+                case Numeric:
+                case Datetime:
+                    Column_Numeric col_num = (Column_Numeric) col;
+                    
+                    header.putDouble( col_num.Stat_min );
+                    header.putDouble( col_num.Stat_max );
+                    PutStatistics( header, col_num.Stats );
+                    header.putInt( col_num.SortIndex != null ? 1 : 0 );
+                break;
+                case Levels:
+                    Column_Levels col_lvl = (Column_Levels) col;
+                    String[] levels = col_lvl.GetLevels();
+                    
+                    header.putInt( levels.length );
+                    for(int l = 0; l < levels.length; l++)
+                    {
+                        PutString( header, levels[l] );
+                        header.putInt( col_lvl.LevelCounts[l] );
+                    }
+                    header.putInt( col_lvl.MaxLevels );
+                break;
+                default:
+                    throw new AssertionError();
+            }
+            
+            header.putLong( offsets[c] );
+        }
+        
+        header.flip();
+        return header;
+    }
+    
+    private static long BlockSize(Column col)
+    {
+        long rows = col.GetRowCount();
+        
+        if( col.GetType() == Table.ColumnDataType.Levels )
+            return rows * 4;
+        
+        return rows * 8 + (SortIndexOf(col) != null ? rows * 4 : 0);
+    }
+    
+    /**
+     * @return sort index of a numeric column if it has been built, else null
+     */
+    private static IntStorage SortIndexOf(Column col)
+    {
+        if( col instanceof Column_Numeric )
+            return ((Column_Numeric) col).SortIndex;
+        
+        return null;
+    }
+    
+    private static void WriteBlock(FileChannel channel, ByteBuffer buffer, Column col) throws IOException
+    {
+        int rows = col.GetRowCount();
+        
+        switch( col.GetType() )
+        {
+            case Numeric:
+            case Datetime:
+                Column_Numeric col_num = (Column_Numeric) col;
+                
+                for(int r = 0; r < rows; r++)
+                    PutDouble( channel, buffer, col_num.DataAsDouble.Get(r) );
+                if( col_num.SortIndex != null )
+                    for(int r = 0; r < rows; r++)
+                        PutInt( channel, buffer, col_num.SortIndex.Get(r) );
+            break;
+            case Levels:
+                Column_Levels col_lvl = (Column_Levels) col;
+                
+                for(int r = 0; r < rows; r++)
+                    PutInt( channel, buffer, col_lvl.Codes.Get(r) );
+            break;
+            default:
+                throw new AssertionError();
+        }
+    }
+    
+    private static void PutDouble(FileChannel channel, ByteBuffer buffer, double value) throws IOException
+    {
+        if( buffer.remaining() < 8 )
+            Flush(channel, buffer);
+        buffer.putDouble(value);
+    }
+    
+    private static void PutInt(FileChannel channel, ByteBuffer buffer, int value) throws IOException
+    {
+        if( buffer.remaining() < 4 )
+            Flush(channel, buffer);
+        buffer.putInt(value);
+    }
+    
+    private static void Flush(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        buffer.flip();
+        while( buffer.hasRemaining() )
+            channel.write(buffer);
+        buffer.clear();
+    }
+    
+    private static void PutString(ByteBuffer buffer, String value)
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt( bytes.length );
+        buffer.put( bytes );
+    }
+    
+    private static void PutStatistics(ByteBuffer buffer, ColumnStatistics stats)
+    {
+        buffer.putLong( stats.GetCount() );
+        buffer.putDouble( stats.GetMin() );
+        buffer.putDouble( stats.GetMax() );
+        buffer.putDouble( stats.GetMean() );
+        buffer.putDouble( stats.GetVariance() );
+    }
+    
+    private static long Align(long offset)
+    {
+        return (offset + 7) & ~7L;
+    }
+    
+    //</editor-fold>
+    //<editor-fold defaultstate="collapsed" desc="Load">
+    
+    public static Table Load(String fileName) throws IOException
+    {
+        return Load(fileName, Table.StorageMode.Heap);
+    }
+    
+    /**
+     * Load table into storage mode. Mapped storage maps the column blocks of the file itself (copy-on-write),
+     * nothing is copied and the table may be larger than the heap.
+     * @param fileName file to read
+     * @param storage where column data is kept
+     * @return loaded table
+     * @throws IOException 
+     */
+    public static Table Load(String fileName, Table.StorageMode storage) throws IOException
+    {
+        Table table = new Table(storage);
+        
+        // Copy-on-write mappings need a channel open for writing, the file itself is never written
+        StandardOpenOption[] options = storage == Table.StorageMode.Mapped
+                ? new StandardOpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE }
+                : new StandardOpenOption[] { StandardOpenOption.READ };
+        
+        try( FileChannel channel = FileChannel.open( new File(fileName).toPath(), options ) )
+        {
+            // Header
+            MappedByteBuffer header = channel.map( FileChannel.MapMode.READ_ONLY, 0, Math.min( channel.size(), Integer.MAX_VALUE ) );
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if( !Arrays.equals(magic, MAGIC) )
+                throw new IOException("Not a table file: " + fileName);
+            
+            int version = header.getInt();
+            if( version != VERSION )
+                throw new IOException("Unsupported table file version " + version + ": " + fileName);
+            
+            int column_count = header.getInt();
+            
+            // Settings first, columns take them as they are added
+            double q_low = header.getDouble();
+            double q_high = header.getDouble();
+            table.SetNormalizationRange( q_low, q_high );
+            table.SetQuantileSketches( header.getInt() != 0 );
+            table.SetGramSketch( header.getInt() != 0 );
+            table.SetPrecision( Table.Precision.values()[ header.getInt() ] );
+            table.SetMaterialized( header.getInt() != 0 );
+            
+            for(int c = 0; c < column_count; c++)
+            {
+                String name = GetString(header);
+                Table.ColumnDataType type = Table.ColumnDataType.values()[ header.getInt() ];
+                int rows = header.getInt();
+                
+                switch( type )
+                {
+                    case Numeric:
+                    case Datetime:
+                    {
+                        Column_Numeric col = (type == Table.ColumnDataType.Numeric ? new Column_Number(name) : new Column_DateTime(name));
+                        col.Stat_min = header.getDouble();
+                        col.Stat_max = header.getDouble();
+                        col.Stats = GetStatistics( header );
+                        boolean sorted = header.getInt() != 0;
+                        
+                        long offset = header.getLong();
+                        col.DataAsDouble = ReadDoubles( channel, offset, rows, storage );
+                        col.RowCount = rows;
+                        if( sorted )
+                            col.SortIndex = ReadInts( channel, offset + rows * 8L, rows, storage );
+                        
+                        table.AddColumn(col);
+                    }
+                    break;
+                    case Levels:
+                    {
+                        Column_Levels col = new Column_Levels(name);
+                        int width = header.getInt();
+                        
+                        col.LevelValues = new String[width];
+                        col.LevelCounts = new int[width];
+                        
+                        for(int l = 0; l < width; l++)
+                        {
+                            col.LevelValues[l] = GetString(header);
+                            col.LevelCounts[l] = header.getInt();
+                        }
+                        col.MaxLevels = header.getInt();
+                        
+                        long offset = header.getLong();
+                        col.Codes = ReadInts( channel, offset, rows, storage );
+                        col.RowCount = rows;
+                        col.SortIndex = new IntStorage[width];
+                        
+                        table.AddColumn(col);
+                    }
+                    break;
+                    default:
+                        throw new AssertionError();
+                }
+            }
+        }
+        
+        return table;
+    }
+    
+    private static DoubleStorage ReadDoubles(FileChannel channel, long offset, int count, Table.StorageMode storage) throws IOException
+    {
+        if( storage == Table.StorageMode.Heap )
+            return DoubleStorage.Wrap( ReadDoubles(channel, offset, count) );
+        
+        if( storage == Table.StorageMode.Mapped )
+            return DoubleStorage.Map( channel, offset, count, FileChannel.MapMode.PRIVATE );
+        
+        return DoubleStorage.Map( channel, offset, count, FileChannel.MapMode.READ_ONLY ).ToMode( storage, count );
+    }
+    
+    private static IntStorage ReadInts(FileChannel channel, long offset, int count, Table.StorageMode storage) throws IOException
+    {
+        if( storage == Table.StorageMode.Heap )
+            return IntStorage.Wrap( ReadInts(channel, offset, count) );
+        
+        if( storage == Table.StorageMode.Mapped )
+            return IntStorage.Map( channel, offset, count, FileChannel.MapMode.PRIVATE );
+        
+        return IntStorage.Map( channel, offset, count, FileChannel.MapMode.READ_ONLY ).ToMode( storage, count );
+    }
+    
+    private static double[] ReadDoubles(FileChannel channel, long offset, int count) throws IOException
+    {
+        double[] values = new double[count];
+        
+        int read = 0;
+        while( read < count )
+        {
+            int length = Math.min( count - read, Integer.MAX_VALUE / 8 );
+            DoubleBuffer block = channel.map( FileChannel.MapMode.READ_ONLY, offset + read * 8L, length * 8L ).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            block.get(values, read, length);
+            read += length;
+        }
+        
+        return values;
+    }
+    
+    private static int[] ReadInts(FileChannel channel, long offset, int count) throws IOException
+    {
+        int[] values = new int[count];
+        
+        int read = 0;
+        while( read < count )
+        {
+            int length = Math.min( count - read, Integer.MAX_VALUE / 4 );
+            IntBuffer block = channel.map( FileChannel.MapMode.READ_ONLY, offset + read * 4L, length * 4L ).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            block.get(values, read, length);
+            read += length;
+        }
+        
+        return values;
+    }
+    
+    private static String GetString(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[ buffer.getInt() ];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static ColumnStatistics GetStatistics(ByteBuffer buffer)
+    {
+        long count = buffer.getLong();
+        double min = buffer.getDouble();
+        double max = buffer.getDouble();
+        double mean = buffer.getDouble();
+        double variance = buffer.getDouble();
+        
+        return new ColumnStatistics( count, min, max, mean, variance );
+    }
+    
+    //</editor-fold>
+}
@@ -0,0 +1,189 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Jacob Cornelius Mosebo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package nn1;
+
+import java.util.Arrays;
+
+/**
+ * Rows and positions of a table without copying its data, such as a training or test split, a fold or a set of predictors.
+ * Cells are read from the columns and normalized data of the table, changes to the table values show through.
+ * Row numbers are those of the table when the view was made, appended rows are not in the view.
+ * Positions are kept as column and position within the column, so they follow the table when new levels move them.
+ */
+public class TableView
+{
+    private final Table Source;
+    
+    // Rows are Row_from .. Row_from + Row_count - 1 of the table, or the table rows in Rows when set
+    private final int Row_from;
+    private final int Row_count;
+    private final int[] Rows;
+    
+    // Column index and position within the column of each position
+    private final int[] Columns;
+    private final int[] Subs;
+    
+    TableView( Table source, int row_from, int row_count, int[] rows, int[] columns, int[] subs )
+    {
+        Source = source;
+        Row_from = row_from;
+        Row_count = row_count;
+        Rows = rows;
+        Columns = columns;
+        Subs = subs;
+    }
+    
+    public Table GetSource()
+    {
+        return Source;
+    }
+    
+    public int GetRowCount()
+    {
+        return Row_count;
+    }
+    
+    public int GetTableWidth()
+    {
+        return Columns.length;
+    }
+    
+    /**
+     * @param row row of the view
+     * @return row of the table
+     */
+    public int GetSourceRow( int row )
+    {
+        return (Rows == null ? Row_from + row : Rows[row]);
+    }
+    
+    /**
+     * @param position position of the view
+     * @return position of the table now
+     * @throws IllegalStateException if the column of the position no longer has it
+     */
+    public int GetSourcePosition( int position )
+    {
+        return Source.GetPosition( Columns[position], Subs[position] );
+    }
+    
+    public double GetCellValueNumeric( int position, int row )
+    {
+        return Source.GetCellValueNumeric( GetSourcePosition(position), GetSourceRow(row) );
+    }
+    
+    public double GetCellValueNormalized( int position, int row )
+    {
+        return Source.GetCellValueNormalized( GetSourcePosition(position), GetSourceRow(row) );
+    }
+    
+    public String GetColumnNameByPosition( int position )
+    {
+        return Source.GetColumnNameByPosition( GetSourcePosition(position) );
+    }
+    
+    /**
+     * View of a range of rows, sharing the row index of this view if it has one.
+     * @param from first row of this view
+     * @param to row after the last
+     */
+    public TableView SelectRows( int from, int to )
+    {
+        if( from < 0 || to > Row_count || from > to )
+            throw new IndexOutOfBoundsException("Rows " + from + ".." + to + " of " + Row_count);
+        
+        if( Rows == null )
+            return new TableView( Source, Row_from + from, to - from, null, Columns, Subs );
+        
+        return new TableView( Source, 0, to - from, Arrays.copyOfRange( Rows, from, to ), Columns, Subs );
+    }
+    
+    /**
+     * View of a subset of rows, in the given order, rows may repeat as in a bootstrap sample.
+     * @param rows rows of this view
+     */
+    public TableView SelectRows( int[] rows )
+    {
+        int[] source_rows = new int[rows.length];
+        
+        for(int r = 0; r < rows.length; r++)
+        {
+            if( rows[r] < 0 || rows[r] >= Row_count )
+                throw new IndexOutOfBoundsException("Row " + rows[r] + " of " + Row_count);
+            
+            source_rows[r] = GetSourceRow( rows[r] );
+        }
+        
+        return new TableView( Source, 0, rows.length, source_rows, Columns, Subs );
+    }
+    
+    /**
+     * View of a subset of positions, in the given order.
+     * @param positions positions of this view
+     */
+    public TableView SelectPositions( int[] positions )
+    {
+        int[] columns = new int[positions.length];
+        int[] subs = new int[positions.length];
+        
+        for(int p = 0; p < positions.length; p++)
+        {
+            if( positions[p] < 0 || positions[p] >= Columns.length )
+                throw new IndexOutOfBoundsException("Position " + positions[p] + " of " + Columns.length);
+            
+            columns[p] = Columns[ positions[p] ];
+            subs[p] = Subs[ positions[p] ];
+        }
+        
+        return new TableView( Source, Row_from, Row_count, Rows, columns, subs );
+    }
+    
+    /**
+     * Rows of the view as fold k of n, rows are dealt to the folds in contiguous ranges.
+     * @param k fold, 0 .. n - 1
+     * @param n number of folds
+     * @param holdout true for the rows of fold k, false for all other rows
+     */
+    public TableView SelectFold( int k, int n, boolean holdout )
+    {
+        if( n < 1 || k < 0 || k >= n )
+            throw new IllegalArgumentException("Fold " + k + " of " + n);
+        
+        int from = (int) ((long) Row_count * k / n);
+        int to = (int) ((long) Row_count * (k + 1) / n);
+        
+        if( holdout )
+            return SelectRows( from, to );
+        
+        int[] rows = new int[Row_count - (to - from)];
+        int i = 0;
+        
+        for(int r = 0; r < from; r++)
+            rows[i++] = r;
+        for(int r = to; r < Row_count; r++)
+            rows[i++] = r;
+        
+        return SelectRows( rows );
+    }
+}
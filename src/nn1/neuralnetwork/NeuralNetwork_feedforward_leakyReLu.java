@@ -25,12 +25,22 @@ package nn1.neuralnetwork;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Random;
+
+import nn1.Table;
+import nn1.TableView;
 
 /**
- *
+ * The precision of a network selects the data set it trains on from a table, Float32 reads Table.GetNormalizedData_rc_f32.
+ * Weights stay double in both, they do not grow with the data. Float data sets are trained on directly as well.
  */
 public class NeuralNetwork_feedforward_leakyReLu 
 {
+    Table.Precision Precision;
+    
+    // Initial weights and Monte Carlo order
+    Random Random_source;
+    
     int Input_height;
     int Matrix_height;
     int Matrix_depth;
@@ -68,6 +78,34 @@ public class NeuralNetwork_feedforward_leakyReLu
     double[][] Axon_output_descent;
     double[][] Axon_output_sum_d;
     
+    public NeuralNetwork_feedforward_leakyReLu()
+    {
+        this( Table.Precision.Float64 );
+    }
+    
+    /**
+     * @param precision of the table data set trained on through a TableView
+     */
+    public NeuralNetwork_feedforward_leakyReLu( Table.Precision precision )
+    {
+        Precision = precision;
+        Random_source = new Random();
+    }
+    
+    public Table.Precision GetPrecision()
+    {
+        return Precision;
+    }
+    
+    /**
+     * Initialize with a seed, networks of the same seed and size start from the same weights and train in the same order.
+     */
+    public void Initialize( int inputs, int outputs, int height, int depth, long seed )
+    {
+        Random_source = new Random( seed );
+        Initialize( inputs, outputs, height, depth );
+    }
+    
     public void Initialize( int inputs, int outputs, int height, int depth)
     {
         Input_height = inputs;
@@ -122,7 +160,7 @@ public class NeuralNetwork_feedforward_leakyReLu
         double[] rand_arr = new double[size];
         for(int i = 0; i < size; i++)
         {
-            double r = Math.random();
+            double r = Random_source.nextDouble();
             if(only_positive)
                 rand_arr[i] = (r + 0.5) * scaling;
             else
@@ -420,18 +458,67 @@ public class NeuralNetwork_feedforward_leakyReLu
     
     public double[] Train(double[][] training_data, int[] ColumnIOMap, double learning_rate, TrainingMethod method, boolean batch_mode)
     {
-        int rowCount = training_data.length;
+        return Train( new DataSet( null, null, training_data, ColumnIOMap.length ), null, ColumnIOMap, learning_rate, method, batch_mode );
+    }
+    
+    /**
+     * Train one round on a row-major data set, as given by Table.GetNormalizedData_rc.
+     * @param training_data cell (row, position) is at row * ColumnIOMap.length + position, not modified
+     * @param ColumnIOMap per position 1 for input, -1 for output
+     * @param learning_rate
+     * @param method
+     * @param batch_mode
+     * @return training MSE per output
+     */
+    public double[] Train(double[] training_data, int[] ColumnIOMap, double learning_rate, TrainingMethod method, boolean batch_mode)
+    {
+        return Train( new DataSet( training_data, null, null, ColumnIOMap.length ), null, ColumnIOMap, learning_rate, method, batch_mode );
+    }
+    
+    /**
+     * Train one round on a row-major float data set, as given by Table.GetNormalizedData_rc_f32.
+     * @param training_data cell (row, position) is at row * ColumnIOMap.length + position, not modified
+     * @param ColumnIOMap per position 1 for input, -1 for output
+     * @param learning_rate
+     * @param method
+     * @param batch_mode
+     * @return training MSE per output
+     */
+    public double[] Train(float[] training_data, int[] ColumnIOMap, double learning_rate, TrainingMethod method, boolean batch_mode)
+    {
+        return Train( new DataSet( null, training_data, null, ColumnIOMap.length ), null, ColumnIOMap, learning_rate, method, batch_mode );
+    }
+    
+    /**
+     * Train one round on the rows and positions of a view, reading the normalized data set of its table in the
+     * precision of the network without copying it.
+     * @param training_data view, position p of the view is mapped by ColumnIOMap[p]
+     * @param ColumnIOMap per view position 1 for input, -1 for output
+     * @param learning_rate
+     * @param method
+     * @param batch_mode
+     * @return training MSE per output
+     */
+    public double[] Train(TableView training_data, int[] ColumnIOMap, double learning_rate, TrainingMethod method, boolean batch_mode)
+    {
+        if( training_data.GetTableWidth() != ColumnIOMap.length )
+            throw new IllegalArgumentException("View is " + training_data.GetTableWidth() + " wide, map has " + ColumnIOMap.length + " positions");
         
-        int input_size = 0;
-        int output_size = 0;
-        for(int i = 0; i < ColumnIOMap.length; i++)
-        {
-            if(ColumnIOMap[i] == 1)
-                input_size++;
-            
-            if(ColumnIOMap[i] == -1)
-                output_size++;
-        }
+        return Train( GetDataSet( training_data.GetSource() ), training_data, ColumnIOMap, learning_rate, method, batch_mode );
+    }
+    
+    // Row and position of the view are read at its source row and position, all rows and positions without a view
+    private double[] Train(DataSet training_data, TableView view, int[] ColumnIOMap, double learning_rate, TrainingMethod method, boolean batch_mode)
+    {
+        int rowCount = (view == null ? training_data.GetRowCount() : view.GetRowCount());
+        
+        // Source positions of inputs and outputs, resolved once
+        int[] inputs = Positions( view, ColumnIOMap, 1 );
+        int[] outputs = Positions( view, ColumnIOMap, -1 );
+        int output_size = outputs.length;
+        
+        double[] stimlation = new double[inputs.length];
+        double[] response = new double[output_size];
         
         ArrayList<double[]> Errors = new ArrayList<>();
         double[] eSum = new double[output_size];
@@ -445,16 +532,16 @@ public class NeuralNetwork_feedforward_leakyReLu
         if(method == TrainingMethod.MonteCarlo)
             for(int i = 0; i < rowCount; i++)
             {
-                int p = (int) (Math.random() * rowCount);
+                int p = (int) (Random_source.nextDouble() * rowCount);
                 int swap = idx_order[i];
                 idx_order[i] = idx_order[p];
                 idx_order[p] = swap;
             }
         else if(method == TrainingMethod.SeedPermutation)
         {
-            int i = 0, seed = Math.max( 1, (TrainingCount + 1) % (training_data.length - 1) );
+            int i = 0, seed = Math.max( 1, (TrainingCount + 1) % (rowCount - 1) );
             for(int s = 0; s < seed; s++)
-                for(int r = s; r < training_data.length; r += seed)
+                for(int r = s; r < rowCount; r += seed)
                 {
                     idx_order[i] = r;
                     i++;
@@ -465,33 +552,19 @@ public class NeuralNetwork_feedforward_leakyReLu
         for(int r = 0; r < rowCount; r++)
         {
             // Build stimulation and response variable arrays
-            double[] stimlation = new double[input_size];
-            double[] response = new double[output_size];
             double[] errors = new double[output_size];
             double[] costs = new double[output_size];
             double[] predictions;
-            int inputIdx = 0;
-            int outputIdx = 0;
-
-            for(int p = 0; p < ColumnIOMap.length; p++)
-            {
-                if(ColumnIOMap[p] == 1)
-                {
-                    stimlation[inputIdx] = training_data[idx_order[r]][p];
-                    inputIdx++;
-                }
-                else
-                {
-                    response[outputIdx] = training_data[idx_order[r]][p];
-                    outputIdx++;
-                }
-            }
+            int row = (view == null ? idx_order[r] : view.GetSourceRow( idx_order[r] ));
+            
+            training_data.Read( row, inputs, stimlation );
+            training_data.Read( row, outputs, response );
 
             // Feed stimulus to learning machine
             predictions = FeedForward(stimlation);
 
             // Calc cost / error
-            for (outputIdx = 0; outputIdx < output_size; outputIdx++) 
+            for (int outputIdx = 0; outputIdx < output_size; outputIdx++) 
             {
                 errors[outputIdx] = response[outputIdx] - predictions[outputIdx];
                 costs[outputIdx] = 2 * errors[outputIdx];
@@ -535,52 +608,71 @@ public class NeuralNetwork_feedforward_leakyReLu
     
     public double[][] Predict(double[][] training_data, int[] ColumnIOMap)
     {
+        return Predict( new DataSet( null, null, training_data, ColumnIOMap.length ), null, ColumnIOMap );
+    }
+    
+    /**
+     * Predict outputs of a row-major data set, as given by Table.GetNormalizedData_rc.
+     * @param training_data cell (row, position) is at row * ColumnIOMap.length + position, not modified
+     * @param ColumnIOMap per position 1 for input, -1 for output
+     * @return predictions [row][output]
+     */
+    public double[][] Predict(double[] training_data, int[] ColumnIOMap)
+    {
+        return Predict( new DataSet( training_data, null, null, ColumnIOMap.length ), null, ColumnIOMap );
+    }
+    
+    /**
+     * Predict outputs of a row-major float data set, as given by Table.GetNormalizedData_rc_f32.
+     * @param training_data cell (row, position) is at row * ColumnIOMap.length + position, not modified
+     * @param ColumnIOMap per position 1 for input, -1 for output
+     * @return predictions [row][output]
+     */
+    public double[][] Predict(float[] training_data, int[] ColumnIOMap)
+    {
+        return Predict( new DataSet( null, training_data, null, ColumnIOMap.length ), null, ColumnIOMap );
+    }
+    
+    /**
+     * Predict outputs of the rows of a view, reading the normalized data set of its table in the precision of the network
+     * without copying it.
+     * @param training_data view, position p of the view is mapped by ColumnIOMap[p]
+     * @param ColumnIOMap per view position 1 for input, -1 for output
+     * @return predictions [row][output]
+     */
+    public double[][] Predict(TableView training_data, int[] ColumnIOMap)
+    {
+        if( training_data.GetTableWidth() != ColumnIOMap.length )
+            throw new IllegalArgumentException("View is " + training_data.GetTableWidth() + " wide, map has " + ColumnIOMap.length + " positions");
         
+        return Predict( GetDataSet( training_data.GetSource() ), training_data, ColumnIOMap );
+    }
+    
+    private double[][] Predict(DataSet training_data, TableView view, int[] ColumnIOMap)
+    {
+        int rowCount = (view == null ? training_data.GetRowCount() : view.GetRowCount());
         
-        int rowCount = training_data.length;
-        
-        int input_size = 0;
-        int output_size = 0;
-        for(int i = 0; i < ColumnIOMap.length; i++)
-        {
-            if(ColumnIOMap[i] == 1)
-                input_size++;
-            
-            if(ColumnIOMap[i] == -1)
-                output_size++;
-        }
+        // Source positions of inputs, resolved once
+        int[] inputs = Positions( view, ColumnIOMap, 1 );
+        int output_size = Positions( view, ColumnIOMap, -1 ).length;
         
+        double[] stimlation = new double[inputs.length];
         double[][] predictions = new double[rowCount][output_size];
         
         // Run through data set / table
         for(int r = 0; r < rowCount; r++)
         {
-            // Build stimulation and response variable arrays
-            double[] stimlation = new double[input_size];
-            double[] response = new double[output_size];
-            int inputIdx = 0;
-            int outputIdx = 0;
-
-            for(int p = 0; p < ColumnIOMap.length; p++)
-            {
-                if(ColumnIOMap[p] == 1)
-                {
-                    stimlation[inputIdx] = training_data[r][p];
-                    inputIdx++;
-                }
-                else
-                {
-                    response[outputIdx] = training_data[r][p];
-                    outputIdx++;
-                }
-            }
+            // Build stimulation array
+            int row = (view == null ? r : view.GetSourceRow( r ));
+            
+            training_data.Read( row, inputs, stimlation );
 
             // Feed stimulus to learning machine
             double[] prediction = FeedForward(stimlation);
             
 
             // Calc cost
-            for (outputIdx = 0; outputIdx < output_size; outputIdx++) 
+            for (int outputIdx = 0; outputIdx < output_size; outputIdx++) 
             {
                 predictions[r][outputIdx] = prediction[outputIdx];
             }
@@ -592,6 +684,85 @@ public class NeuralNetwork_feedforward_leakyReLu
     }
     
     
+    // Normalized data set of a table in the precision of the network
+    private DataSet GetDataSet( Table source )
+    {
+        if( Precision == Table.Precision.Float32 )
+            return new DataSet( null, source.GetNormalizedData_rc_f32(), null, source.GetTableWidth() );
+        
+        return new DataSet( source.GetNormalizedData_rc(), null, null, source.GetTableWidth() );
+    }
+    
+    /**
+     * Training data in one of its layouts: row-major double or float array of Width positions, or an array per row.
+     */
+    private static final class DataSet
+    {
+        final double[] Data;
+        final float[] Data_f32;
+        final double[][] Rows;
+        final int Width;
+        
+        DataSet( double[] data, float[] data_f32, double[][] rows, int width )
+        {
+            this.Data = data;
+            this.Data_f32 = data_f32;
+            this.Rows = rows;
+            this.Width = width;
+        }
+        
+        int GetRowCount()
+        {
+            if( Rows != null )
+                return Rows.length;
+            
+            return (Data != null ? Data.length : Data_f32.length) / Width;
+        }
+        
+        /**
+         * Read cells of a row, the layout is picked once per row.
+         * @param positions position per value
+         * @param values receives the cells
+         */
+        void Read( int row, int[] positions, double[] values )
+        {
+            if( Data != null )
+            {
+                int base = row * Width;
+                for(int i = 0; i < positions.length; i++)
+                    values[i] = Data[base + positions[i]];
+            }
+            else if( Data_f32 != null )
+            {
+                int base = row * Width;
+                for(int i = 0; i < positions.length; i++)
+                    values[i] = Data_f32[base + positions[i]];
+            }
+            else
+            {
+                double[] cells = Rows[row];
+                for(int i = 0; i < positions.length; i++)
+                    values[i] = cells[positions[i]];
+            }
+        }
+    }
+    
+    // Source positions of the view positions mapped to role, 1 for input or -1 for output, all positions without a view
+    private static int[] Positions( TableView view, int[] ColumnIOMap, int role )
+    {
+        int count = 0;
+        for(int p = 0; p < ColumnIOMap.length; p++)
+            if( ColumnIOMap[p] == role )
+                count++;
+        
+        int[] positions = new int[count];
+        int i = 0;
+        for(int p = 0; p < ColumnIOMap.length; p++)
+            if( ColumnIOMap[p] == role )
+                positions[i++] = (view == null ? p : view.GetSourcePosition(p));
+        return positions;
+    }
+    
     public int Count0Neurons()
     {
         int dead = 0;
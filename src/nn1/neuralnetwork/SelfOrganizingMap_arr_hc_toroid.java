@@ -28,12 +28,15 @@ import java.text.NumberFormat;
 import java.util.LinkedList;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Formatter;
 import java.util.TreeSet;
+import nn1.DoubleStorage;
 import nn1.RTree_3d_ref;
 
 /**
- *
+ * Weights are kept in the precision of the map, Float32 halves their memory and trains on
+ * Table.GetNormalizedData_cr_f32. Distances and updates are computed in double in both precisions.
  */
 public class SelfOrganizingMap_arr_hc_toroid 
 {
@@ -42,8 +45,10 @@ public class SelfOrganizingMap_arr_hc_toroid
     //</editor-fold>
     //<editor-fold defaultstate="collapsed" desc="Vars -- Weights and tracking">
     
-    double[][][] Neuron_matrix_weights;
-    double[][][] Neuron_matrix_gradients;
+    // Neuron (w, h) in dimension d at (w * Neuron_matrix_height + h) * Neuron_matrix_depth + d
+    DoubleStorage Neuron_matrix_weights;
+    DoubleStorage Neuron_matrix_gradients;
+    nn1.Table.Precision Precision;
     
     int Neuron_matrix_width;
     int Neuron_matrix_height;
@@ -53,9 +58,30 @@ public class SelfOrganizingMap_arr_hc_toroid
     //</editor-fold>
     //<editor-fold defaultstate="collapsed" desc="Func -- Initialization">
     public SelfOrganizingMap_arr_hc_toroid( nn1.Table TrainingData )
+    {
+        this( TrainingData, nn1.Table.Precision.Float64 );
+    }
+    
+    /**
+     * @param TrainingData
+     * @param precision of the neuron weights and of the data set trained on
+     */
+    public SelfOrganizingMap_arr_hc_toroid( nn1.Table TrainingData, nn1.Table.Precision precision )
     {
         this.TrainingData = TrainingData;
         this.Neuron_matrix_depth = TrainingData.GetTableWidth();
+        this.Precision = precision;
+    }
+    
+    public nn1.Table.Precision GetPrecision()
+    {
+        return Precision;
+    }
+    
+    // Index of neuron (w, h) dimension 0
+    private int NeuronBase( int w, int h )
+    {
+        return (w * Neuron_matrix_height + h) * Neuron_matrix_depth;
     }
     
     public void Initialize()
@@ -80,9 +106,10 @@ public class SelfOrganizingMap_arr_hc_toroid
         Neuron_matrix_width = width;
         Neuron_matrix_height = height;
         
-        Neuron_matrix_weights = new double[Neuron_matrix_width][Neuron_matrix_height][Neuron_matrix_depth];
+        int size = Math.multiplyExact( Math.multiplyExact( width, height ), Neuron_matrix_depth );
+        Neuron_matrix_weights = DoubleStorage.Create( size, nn1.Table.StorageMode.Heap, Precision );
         
-        Neuron_matrix_gradients = new double[Neuron_matrix_width][Neuron_matrix_height][Neuron_matrix_depth];
+        Neuron_matrix_gradients = DoubleStorage.Create( size, nn1.Table.StorageMode.Heap, Precision );
         Neuron_matrix_hits = new int[Neuron_matrix_width][Neuron_matrix_height];
         
         int neuronCount = 0;
@@ -102,10 +129,10 @@ public class SelfOrganizingMap_arr_hc_toroid
                     double scalar_height = ( (double)h / ( (double) height - 1d ) );
                     double scalar_pc = 1 / ( Math.abs( pc1[d] ) + Math.abs( pc2[d] ) );
                     
-                    Neuron_matrix_weights[w][h][d] = 
+                    Neuron_matrix_weights.Set( NeuronBase(w, h) + d,
                             scalar_pc * Math.abs( pc1[d] ) * scalar_width +
                             scalar_pc * Math.abs( pc2[d] ) * scalar_height
-                            ;
+                            );
                     //if(d == 37 || d == 12) System.out.println("\tw: " + w + " ~" + scalar_width + "\th: " + h + "\td: " + d + "\tinit: " + Neuron_matrix_weights[w][h][d] + "\tpc1.d: " + pc1[d] + "\tpc2.d: " + pc2[d] );
                 }
                 
@@ -114,7 +141,7 @@ public class SelfOrganizingMap_arr_hc_toroid
         }
         
         
-        RTree_3d_ref RTree = new RTree_3d_ref( Neuron_matrix_weights );
+        RTree_3d_ref RTree = new RTree_3d_ref( GetWeights() );
         for(int h = 0; h < height; h++)
         {
             for(int w = 0; w < width; w++)
@@ -125,7 +152,7 @@ public class SelfOrganizingMap_arr_hc_toroid
         }
         
         double[] pp = new double[Neuron_matrix_depth];
-        Double[] p = new Double[Neuron_matrix_depth];
+        double[] p = new double[Neuron_matrix_depth];
         for(int i = 0; i < Neuron_matrix_depth; i++)
         {
             p[i] = Math.random();
@@ -141,7 +168,7 @@ public class SelfOrganizingMap_arr_hc_toroid
         
         dist = 0d;
         for(int i = 0; i < Neuron_matrix_depth; i++)
-            dist += Math.pow( Neuron_matrix_weights[c[0]][c[1]][i] - p[i], 2);
+            dist += Math.pow( Neuron_matrix_weights.Get( NeuronBase(c[0], c[1]) + i ) - p[i], 2);
         dist = Math.pow(dist, 0.5d);
         
         System.out.println( "\tfBMU: " + c[0] + "," + c[1] + "\t" + dist );
@@ -150,7 +177,7 @@ public class SelfOrganizingMap_arr_hc_toroid
         
         dist = 0d;
         for(int i = 0; i < Neuron_matrix_depth; i++)
-            dist += Math.pow( Neuron_matrix_weights[c[0]][c[1]][i] - p[i], 2);
+            dist += Math.pow( Neuron_matrix_weights.Get( NeuronBase(c[0], c[1]) + i ) - p[i], 2);
         dist = Math.pow(dist, 0.5d);
         
         System.out.println( "\tR.fNN: " + c[0] + "," + c[1] + "\t" + dist );        
@@ -162,7 +189,16 @@ public class SelfOrganizingMap_arr_hc_toroid
     
     //</editor-fold>
     //<editor-fold defaultstate="collapsed" desc="Func -- Learning">
-    private int[] FindBestMatchingUnit(Double[] x)
+    private int[] FindBestMatchingUnit(double[] x)
+    {
+        return FindBestMatchingUnit(x, false);
+    }
+    
+    /**
+     * @param x sample row, NaN is missing
+     * @param complete x has no missing values, distances are summed without NaN checks
+     */
+    private int[] FindBestMatchingUnit(double[] x, boolean complete)
     {
         int bmu_w = 0;
         int bmu_h = 0;
@@ -176,11 +212,23 @@ public class SelfOrganizingMap_arr_hc_toroid
                     continue;
                 
                 double distance = 0d;
+                int base = NeuronBase(w, h);
 
-                for(int d = 0; d < Neuron_matrix_depth; d++)
+                if( complete )
                 {
-                    if( !x[d].isNaN() )
-                        distance += Math.pow(Neuron_matrix_weights[w][h][d] - x[d], 2d );
+                    for(int d = 0; d < Neuron_matrix_depth; d++)
+                    {
+                        double diff = Neuron_matrix_weights.Get(base + d) - x[d];
+                        distance += diff * diff;
+                    }
+                }
+                else
+                {
+                    for(int d = 0; d < Neuron_matrix_depth; d++)
+                    {
+                        if( !Double.isNaN(x[d]) )
+                            distance += Math.pow(Neuron_matrix_weights.Get(base + d) - x[d], 2d );
+                    }
                 }
 
                 //distance = Math.pow(distance, 0.5d);
@@ -201,10 +249,12 @@ public class SelfOrganizingMap_arr_hc_toroid
     private double Neighbourhood( int c_w, int c_h, int n_w, int n_h, double r )
     {
         double distance = 0d;
+        int c_base = NeuronBase(c_w, c_h);
+        int n_base = NeuronBase(n_w, n_h);
 
         for(int d = 0; d < Neuron_matrix_depth; d++)
         {
-            distance += Math.pow(Neuron_matrix_weights[c_w][c_h][d] - Neuron_matrix_weights[n_w][n_h][d], 2d );
+            distance += Math.pow(Neuron_matrix_weights.Get(c_base + d) - Neuron_matrix_weights.Get(n_base + d), 2d );
         }
         distance = Math.pow(distance, 0.5d);
         
@@ -244,7 +294,9 @@ public class SelfOrganizingMap_arr_hc_toroid
     {
         NumberFormat format7d = new DecimalFormat("#0.0000000");
         
-        Double[][] trainingData = TrainingData.GetNormalizedDataSetAsArray_cr();
+        // Off-heap tables are read cell by cell instead of copied onto the heap, Float32 maps read the float data set
+        boolean heap = TrainingData.GetStorage() == nn1.Table.StorageMode.Heap;
+        double[] trainingData = heap && Precision == nn1.Table.Precision.Float64 ? TrainingData.GetNormalizedData_cr() : null;
         
         int rowCount = TrainingData.GetRowCount();
         int trainCount_radius = 0;
@@ -326,7 +378,7 @@ public class SelfOrganizingMap_arr_hc_toroid
     private final int[] walk_r1_u_w = new int[] { 1,  0, -1, -1, 1, 1 };
     private final int[] walk_r1_u_h = new int[] { 0, -1,  0,  1, 1, 0 };
     
-    public double Train_MonteCarlo(Double[][] trainingData, int repCount, int duration, double learningRate, int coop_radius )
+    public double Train_MonteCarlo(double[] trainingData, int repCount, int duration, double learningRate, int coop_radius )
     {
         int rowCount = TrainingData.GetRowCount();
                 
@@ -364,7 +416,7 @@ public class SelfOrganizingMap_arr_hc_toroid
         
     }
     
-    public double Train_SeededOrder(Double[][] trainingData, int repCount, double learningRate, int coop_radius, int seed )
+    public double Train_SeededOrder(double[] trainingData, int repCount, double learningRate, int coop_radius, int seed )
     {
         int row_count = TrainingData.GetRowCount();
         seed = Math.max( seed % row_count, 1 );
@@ -393,27 +445,29 @@ public class SelfOrganizingMap_arr_hc_toroid
         
     }
     
-    public double Train_SingleSession(int[] idx_order, double learningRate, int coop_radius, Double[][] trainingData )
+    public double Train_SingleSession(int[] idx_order, double learningRate, int coop_radius, double[] trainingData )
     {
-        int TableWidth = trainingData.length;
+        int TableWidth = Neuron_matrix_depth;
+        double[] x = new double[ TableWidth ];
                 
         double training_error = 0;
         int training_count = 0;
+        
+        BitSet incomplete = TrainingData.GetIncompleteRows();
 
         // Iterate over time - just indices
         for(int t = 0; t < idx_order.length; t++)
         {
             // Get sample row
             int row = idx_order[t];
-            Double[] x = new Double[ TableWidth ];
-            for(int c = 0; c < TableWidth; c++)
-                x[c] = trainingData[c][row];
+            GetSampleRow(row, trainingData, x);
+            boolean complete = !incomplete.get(row);
 
             // Calc local learning rate
             double learningRate_t = learningRate;// * (1 - (t / idx_order.length) );
 
             // Find best matching unit
-            int[] bmu_coords = FindBestMatchingUnit(x);
+            int[] bmu_coords = FindBestMatchingUnit(x, complete);
             int bmu_w = bmu_coords[0];
             int bmu_h = bmu_coords[1];
 
@@ -426,22 +480,7 @@ public class SelfOrganizingMap_arr_hc_toroid
 
             double neighbourhood_dist = 1d;
 
-            for(int d = 0; d < Neuron_matrix_depth; d++)
-            {
-                if( !x[d].isNaN() )
-                {
-                    Neuron_matrix_gradients[bmu_w][bmu_h][d] = learningRate_t * neighbourhood_dist * ( x[d] - Neuron_matrix_weights[bmu_w][bmu_h][d] );
-                    Neuron_matrix_weights[bmu_w][bmu_h][d] = Neuron_matrix_weights[bmu_w][bmu_h][d] + Neuron_matrix_gradients[bmu_w][bmu_h][d];
-                }
-                else // If unknown, do as last time
-                {
-                    Neuron_matrix_weights[bmu_w][bmu_h][d] = Neuron_matrix_weights[bmu_w][bmu_h][d] + Neuron_matrix_gradients[bmu_w][bmu_h][d];
-                    Neuron_matrix_gradients[bmu_w][bmu_h][d] = 0d;
-                }
-
-                //if( Double.isInfinite(Neuron_matrix_weights[bmu_w][bmu_h][d]))
-                //    System.out.println("wah");
-            }
+            Update( NeuronBase(bmu_w, bmu_h), learningRate_t * neighbourhood_dist, x, complete );
 
             int u_h, u_w;
 
@@ -470,20 +509,7 @@ public class SelfOrganizingMap_arr_hc_toroid
                         neighbourhood_dist = Neighbourhood( bmu_w, bmu_h, u_w, u_h, r);
 
                         //System.out.println( "\tr:" + r + "\tw:" + w + "\tdir:"+dir+"\tu_w:"+u_w + "\tu_h:"+u_h);
-                        for(int d = 0; d < Neuron_matrix_depth; d++)
-                        {
-                            //System.out.println( "\tr:" + r + "\tw:" + w + "\tdir:"+dir+"\td:" + d + "\tu_w:"+u_w + "\tu_h:"+u_h);
-                            if( !x[d].isNaN() )
-                            {
-                                Neuron_matrix_gradients[u_w][u_h][d] = learningRate_t * neighbourhood_dist * ( x[d] - Neuron_matrix_weights[u_w][u_h][d] );
-                                Neuron_matrix_weights[u_w][u_h][d] = Neuron_matrix_weights[u_w][u_h][d] + Neuron_matrix_gradients[u_w][u_h][d];
-                            }
-                            else // If unknown, do as last time
-                            {
-                                Neuron_matrix_weights[u_w][u_h][d] = Neuron_matrix_weights[u_w][u_h][d] + Neuron_matrix_gradients[u_w][u_h][d];
-                                Neuron_matrix_gradients[u_w][u_h][d] = 0d;
-                            }
-                        }
+                        Update( NeuronBase(u_w, u_h), learningRate_t * neighbourhood_dist, x, complete );
 
                     }
 
@@ -493,11 +519,13 @@ public class SelfOrganizingMap_arr_hc_toroid
             // Collect BMU error
             double errorSum = 0d;
             int errorCount = 0;
+            int bmu_base = NeuronBase(bmu_w, bmu_h);
 
             for(int d = 0; d < TableWidth; d++)
-                if(!x[d].isNaN())
+                if( complete || !Double.isNaN(x[d]) )
                 {
-                    errorSum += (Neuron_matrix_weights[bmu_w][bmu_h][d] - x[d])*(Neuron_matrix_weights[bmu_w][bmu_h][d] - x[d]);
+                    double diff = Neuron_matrix_weights.Get(bmu_base + d) - x[d];
+                    errorSum += diff * diff;
                     errorCount++;
                 }
 
@@ -509,6 +537,87 @@ public class SelfOrganizingMap_arr_hc_toroid
         
     }
     
+    /**
+     * Move neuron at base toward x by rate: m(i + 1) = m(i) + rate * ( x - m(i) ).
+     * Dimensions missing in x repeat their last gradient once.
+     */
+    private void Update( int base, double rate, double[] x, boolean complete )
+    {
+        for(int d = 0; d < Neuron_matrix_depth; d++)
+        {
+            int i = base + d;
+            double weight = Neuron_matrix_weights.Get(i);
+            
+            if( complete || !Double.isNaN(x[d]) )
+            {
+                double gradient = rate * ( x[d] - weight );
+                Neuron_matrix_gradients.Set( i, gradient );
+                Neuron_matrix_weights.Set( i, weight + gradient );
+            }
+            else // If unknown, do as last time
+            {
+                Neuron_matrix_weights.Set( i, weight + Neuron_matrix_gradients.Get(i) );
+                Neuron_matrix_gradients.Set( i, 0d );
+            }
+        }
+    }
+    
+    /**
+     * Read normalized sample row, missing values are NaN.
+     * @param row row index
+     * @param trainingData column-major data set of TrainingData, null for the float data set of a Float32 map or the table
+     * @param x receives the row [Neuron_matrix_depth]
+     */
+    private void GetSampleRow(int row, double[] trainingData, double[] x)
+    {
+        if( trainingData != null )
+        {
+            int row_count = trainingData.length / Neuron_matrix_depth;
+            for(int c = 0; c < Neuron_matrix_depth; c++)
+                x[c] = trainingData[c * row_count + row];
+            return;
+        }
+        
+        if( Precision == nn1.Table.Precision.Float32 && TrainingData.GetStorage() == nn1.Table.StorageMode.Heap )
+        {
+            float[] data_f32 = TrainingData.GetNormalizedData_cr_f32();
+            int row_count = data_f32.length / Neuron_matrix_depth;
+            for(int c = 0; c < Neuron_matrix_depth; c++)
+                x[c] = data_f32[c * row_count + row];
+            return;
+        }
+        
+        for(int c = 0; c < Neuron_matrix_depth; c++)
+            x[c] = TrainingData.GetCellValueNormalized(c, row);
+    }
+    
+    /**
+     * Weights of neuron (w, h).
+     * @return copy [Neuron_matrix_depth]
+     */
+    public double[] GetWeights( int w, int h )
+    {
+        double[] weights = new double[Neuron_matrix_depth];
+        int base = NeuronBase(w, h);
+        
+        for(int d = 0; d < Neuron_matrix_depth; d++)
+            weights[d] = Neuron_matrix_weights.Get(base + d);
+        
+        return weights;
+    }
+    
+    // All weights as [w][h][d], for the R-tree
+    private double[][][] GetWeights()
+    {
+        double[][][] weights = new double[Neuron_matrix_width][Neuron_matrix_height][];
+        
+        for(int w = 0; w < Neuron_matrix_width; w++)
+            for(int h = 0; h < Neuron_matrix_height; h++)
+                weights[w][h] = GetWeights(w, h);
+        
+        return weights;
+    }
+    
     //</editor-fold>
     //<editor-fold defaultstate="collapsed" desc="Func -- Cleaning">
     private void ResetHits()
@@ -550,78 +659,69 @@ public class SelfOrganizingMap_arr_hc_toroid
         return neuron_count;
     }
     
-    public double PredictionMSE(int[] indices, Double[][] trainingData)
+    public double PredictionMSE(int[] indices, double[] trainingData)
     {
         double mse = 0d;
-        Double[] row_data = new Double[Neuron_matrix_depth];
+        double[] row_data = new double[Neuron_matrix_depth];
         double[] row_prediction;
         for(int i = 0; i < indices.length; i++)
         {
-            for(int c = 0; c < Neuron_matrix_depth; c++)
-                row_data[c] = trainingData[c][i];
+            GetSampleRow(i, trainingData, row_data);
 
             row_prediction = Predict(i, trainingData);
             
             for(int c = 0; c < Neuron_matrix_depth; c++)
-                if(!row_data[c].isNaN())
+                if(!Double.isNaN(row_data[c]))
                     mse += Math.pow( row_prediction[c] - row_data[c], 2 );
         }
         return mse / ((double) indices.length);
     }
     
-    public double[] Predict(int row, Double[][] trainingData)
+    public double[] Predict(int row, double[] trainingData)
     {
         // Get sample row
-        Double[] x = new Double[ Neuron_matrix_depth ];
-        for(int c = 0; c < Neuron_matrix_depth; c++)
-            x[c] = trainingData[c][row];
+        double[] x = new double[ Neuron_matrix_depth ];
+        GetSampleRow(row, trainingData, x);
         
         int[] bmu_coords = FindBestMatchingUnit(x);
         
-        return Neuron_matrix_weights[ bmu_coords[0] ][ bmu_coords[1] ];
+        return GetWeights( bmu_coords[0], bmu_coords[1] );
     }
     
     public double[] Predict(int row)
     {
         // Get sample row
-        Double[] x = new Double[ Neuron_matrix_depth ];
+        double[] x = new double[ Neuron_matrix_depth ];
         for(int c = 0; c < Neuron_matrix_depth; c++)
             x[c] = TrainingData.GetCellValueNormalized(c, row);
         
         int[] bmu_coords = FindBestMatchingUnit(x);
         
-        return Neuron_matrix_weights[ bmu_coords[0] ][ bmu_coords[1] ];
+        return GetWeights( bmu_coords[0], bmu_coords[1] );
     }
     
     public nn1.Table FillMissingValues()
     {
         int rowCount = TrainingData.GetRowCount();
         
-        Double[] x = new Double[ Neuron_matrix_depth ];
+        double[] x = new double[ Neuron_matrix_depth ];
         double[] y;
 
-        // Iterate over time - just indices
-        for(int r = 0; r < rowCount; r++)
+        // Iterate over incomplete rows only, the table builds a new set once values are filled in
+        BitSet incomplete = TrainingData.GetIncompleteRows();
+        
+        for(int r = incomplete.nextSetBit(0); r >= 0; r = incomplete.nextSetBit(r + 1))
         {
             // Get sample row
             for(int c = 0; c < Neuron_matrix_depth; c++)
                 x[c] = TrainingData.GetCellValueNormalized(c, r);
-
-            // Look for missing values
-            boolean containsMissingValue = false;
-            for(int c = 0; c < Neuron_matrix_depth; c++)
-                if(x[c].isNaN())
-                    containsMissingValue = true;
-            
-            if(!containsMissingValue)
-                continue;
             
             // Predict
             y = Predict(r);
             
             // Set missing value
             for(int c = 0; c < Neuron_matrix_depth; c++)
-                if(x[c].isNaN())
+                if(Double.isNaN(x[c]))
                 {
                     double denorm_value = TrainingData.DenormalizeColumnValue( c, y[c] );
                     TrainingData.SetCellValue( c, r, denorm_value );
@@ -666,9 +766,9 @@ public class SelfOrganizingMap_arr_hc_toroid
                 
                 line = new StringBuilder();
 
-                line.append( Neuron_matrix_weights[w][h][position1] );
+                line.append( Neuron_matrix_weights.Get( NeuronBase(w, h) + position1 ) );
                 line.append( "," );
-                line.append( Neuron_matrix_weights[w][h][position2] );
+                line.append( Neuron_matrix_weights.Get( NeuronBase(w, h) + position2 ) );
                 line.append( "," );
                 line.append( Neuron_matrix_hits[w][h] );
                 line.append( "," );